@@ -0,0 +1,86 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * Generated inputs for the benchmarks, so results do not depend on the contents of the data directory.
+ *
+ * <p>Every fixture is seeded, so two runs with the same parameters measure the same bytes.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Write a PDF whose pages each carry an unfiltered content stream of about {@code payloadBytes}. The payload is
+     * made of content-stream comments, so it is valid but does not compress, much like scanned image data.
+     */
+    static Path createPdf(Path file, int pages, int payloadBytes, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                COSStream content = doc.getDocument().createCOSStream();
+                try (OutputStream out = content.createRawOutputStream()) {
+                    out.write(("0 0 " + (10 + i) + " 10 re f\n").getBytes(StandardCharsets.US_ASCII));
+                    byte[] line = new byte[64];
+                    for (int written = 0; written < payloadBytes; written += line.length + 2) {
+                        for (int j = 0; j < line.length; j++) {
+                            line[j] = (byte) ('!' + random.nextInt(90));
+                        }
+                        out.write('%');
+                        out.write(line);
+                        out.write('\n');
+                    }
+                }
+                page.getCOSObject().setItem(COSName.CONTENTS, content);
+                doc.addPage(page);
+            }
+            doc.save(file.toFile());
+        }
+        return file;
+    }
+
+    /** Create {@code documents} PDFs spread over a two-level directory tree under {@code root}. */
+    static List<Path> createTree(Path root, int documents, int pages, int payloadBytes) throws IOException {
+        List<Path> files = new ArrayList<>(documents);
+        for (int i = 0; i < documents; i++) {
+            Path dir = Files.createDirectories(root.resolve("d" + (i % 16)).resolve("e" + (i % 7)));
+            files.add(createPdf(dir.resolve(String.format("doc-%06d.pdf", i)), pages, payloadBytes, i));
+            // Non-PDF neighbors, so scanning also has something to reject
+            if (i % 4 == 0) {
+                Files.writeString(dir.resolve(String.format("note-%06d.txt", i)), "not a pdf");
+            }
+        }
+        return files;
+    }
+
+    static void delete(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path p : paths) {
+            Files.deleteIfExists(p);
+        }
+    }
+}
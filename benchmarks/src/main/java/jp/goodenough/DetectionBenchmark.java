@@ -0,0 +1,58 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of recognizing one candidate: the extension check and the header/trailer sniff, by file size. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DetectionBenchmark {
+
+    @Param({"0", "1048576"})
+    public int payloadBytes;
+
+    private Path dir;
+    private Path file;
+    private final Path name = Paths.get("/archive/2024/scans/Invoice-000123.PDF");
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("mergepdf-bench-detect-");
+        file = BenchmarkFixtures.createPdf(dir.resolve("sample.pdf"), 1, payloadBytes, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.delete(dir);
+    }
+
+    @Benchmark
+    public boolean isPdf() {
+        return InputScanner.isPdf(name);
+    }
+
+    @Benchmark
+    public boolean looksLikePdf() throws IOException {
+        return InputScanner.looksLikePdf(file);
+    }
+}
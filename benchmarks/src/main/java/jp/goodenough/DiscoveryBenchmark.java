@@ -0,0 +1,59 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Input discovery: {@code Main.resolveInputs} over a generated tree, sequential vs. concurrent, by name vs. content. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiscoveryBenchmark {
+
+    @Param({"100", "2000"})
+    public int documents;
+
+    @Param({"1", "16"})
+    public int scanThreads;
+
+    @Param({"EXTENSION", "CONTENT"})
+    public InputScanner.Detection detection;
+
+    private Path root;
+    private MergeOptions options;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("mergepdf-bench-scan-");
+        BenchmarkFixtures.createTree(root, documents, 1, 0);
+        options = MergeOptions.builder().scanThreads(scanThreads).detection(detection).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.delete(root);
+    }
+
+    @Benchmark
+    public List<Path> resolveInputs() throws IOException {
+        return Main.resolveInputs(List.of(root.toString()), options);
+    }
+}
@@ -0,0 +1,84 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end {@code Main.mergePdfs} over generated inputs, for each merge mode.
+ *
+ * <p>Each invocation writes a fresh output, so the numbers include serialization and the file system.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MergeBenchmark {
+
+    /** Merge modes compared by this benchmark. */
+    public enum Mode {
+        BUFFERED, STREAMING, PARALLEL, DEDUP, COMPACT
+    }
+
+    @Param({"10", "200"})
+    public int documents;
+
+    @Param({"1", "20"})
+    public int pagesPerDocument;
+
+    @Param({"0", "65536"})
+    public int payloadBytesPerPage;
+
+    @Param({"BUFFERED", "STREAMING", "PARALLEL", "DEDUP", "COMPACT"})
+    public Mode mode;
+
+    private Path dir;
+    private List<Path> inputs;
+    private Path output;
+    private MergeOptions options;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("mergepdf-bench-merge-");
+        BenchmarkFixtures.createTree(dir.resolve("in"), documents, pagesPerDocument, payloadBytesPerPage);
+        inputs = Main.resolveInputs(List.of(dir.resolve("in").toString()), MergeOptions.defaults());
+        output = dir.resolve("out.pdf");
+        MergeOptions.Builder builder = MergeOptions.builder();
+        switch (mode) {
+            case BUFFERED -> { }
+            case STREAMING -> builder.streaming(true);
+            case PARALLEL -> builder.parallelism(Runtime.getRuntime().availableProcessors());
+            case DEDUP -> builder.streaming(true).deduplicate(true);
+            case COMPACT -> builder.streaming(true).compact(true);
+            default -> throw new IllegalStateException("Unknown mode: " + mode);
+        }
+        options = builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.delete(dir);
+    }
+
+    @Benchmark
+    public MergeResult mergePdfs() throws IOException {
+        return Main.mergePdfs(inputs, output, options);
+    }
+}
@@ -0,0 +1,200 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineNode;
+
+/**
+ * Outline items for the merged inputs, each titled with its file name and pointing at its first page.
+ *
+ * <p>The number of pages each input contributes is recorded as it is appended, and the items are added to the
+ * destination just before it is saved, so no document is read a second time. Outline items that came with the inputs
+ * are moved under the item of the input whose pages they point at; those that point nowhere in the output stay at the
+ * top level, after the generated items.
+ */
+final class Bookmarks {
+
+    /** How the generated items are arranged. */
+    enum Layout {
+        /** No items are generated. */
+        NONE,
+        /** One top-level item per input. */
+        FILES,
+        /** An item per directory below the common directory of the inputs, with the inputs' items inside. */
+        TREE
+    }
+
+    private final Layout layout;
+    private final List<Path> inputs;
+    private final int[] pages;
+
+    /** Items for {@code inputs}, whose pages are merged in that order. */
+    Bookmarks(Layout layout, List<Path> inputs) {
+        this.layout = layout;
+        this.inputs = List.copyOf(inputs);
+        this.pages = new int[inputs.size()];
+    }
+
+    /** Record that {@code count} pages of input {@code index} were appended. */
+    void record(int index, int count) {
+        pages[index] = count;
+    }
+
+    /** Add the outline to {@code document}, which holds the recorded pages of every input in order. */
+    void addTo(PDDocument document) throws IOException {
+        if (layout == Layout.NONE) {
+            return;
+        }
+        List<PDPage> documentPages = new ArrayList<>(document.getNumberOfPages());
+        Map<COSDictionary, Integer> pageIndex = new IdentityHashMap<>();
+        for (PDPage page : document.getPages()) {
+            pageIndex.put(page.getCOSObject(), documentPages.size());
+            documentPages.add(page);
+        }
+        // Collected before anything is moved, since moving an item breaks the sibling chain it is iterated by
+        List<PDOutlineItem> carried = new ArrayList<>();
+        PDDocumentOutline existing = document.getDocumentCatalog().getDocumentOutline();
+        if (existing != null) {
+            for (PDOutlineItem item : existing.children()) {
+                carried.add(item);
+            }
+        }
+
+        PDDocumentOutline outline = new PDDocumentOutline();
+        Path root = layout == Layout.TREE ? commonDirectory() : null;
+        List<String> openDirectories = new ArrayList<>();
+        List<PDOutlineNode> openNodes = new ArrayList<>();
+        PDOutlineItem[] items = new PDOutlineItem[inputs.size()];
+        int[] firstPages = new int[inputs.size()];
+        int next = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            firstPages[i] = next;
+            next += pages[i];
+            if (pages[i] == 0) {
+                // Nothing to point at
+                continue;
+            }
+            PDPage first = documentPages.get(firstPages[i]);
+            PDOutlineNode parent = outline;
+            if (root != null) {
+                List<String> directories = directories(root, inputs.get(i));
+                int shared = 0;
+                while (shared < openDirectories.size() && shared < directories.size()
+                        && openDirectories.get(shared).equals(directories.get(shared))) {
+                    shared++;
+                }
+                openDirectories.subList(shared, openDirectories.size()).clear();
+                openNodes.subList(shared, openNodes.size()).clear();
+                for (int d = shared; d < directories.size(); d++) {
+                    PDOutlineItem directory = item(directories.get(d), first);
+                    (d == 0 ? outline : openNodes.get(d - 1)).addLast(directory);
+                    openDirectories.add(directories.get(d));
+                    openNodes.add(directory);
+                }
+                if (!openNodes.isEmpty()) {
+                    parent = openNodes.get(openNodes.size() - 1);
+                }
+            }
+            items[i] = item(title(inputs.get(i)), first);
+            parent.addLast(items[i]);
+        }
+
+        List<PDOutlineItem> unplaced = new ArrayList<>();
+        for (PDOutlineItem item : carried) {
+            PDPage target = item.findDestinationPage(document);
+            Integer page = target == null ? null : pageIndex.get(target.getCOSObject());
+            int input = page == null ? -1 : inputOf(firstPages, page);
+            COSDictionary dictionary = item.getCOSObject();
+            dictionary.removeItem(COSName.PARENT);
+            dictionary.removeItem(COSName.PREV);
+            dictionary.removeItem(COSName.NEXT);
+            if (input >= 0 && items[input] != null) {
+                items[input].addLast(item);
+            } else {
+                unplaced.add(item);
+            }
+        }
+        for (PDOutlineItem item : unplaced) {
+            outline.addLast(item);
+        }
+        document.getDocumentCatalog().setDocumentOutline(outline);
+    }
+
+    /** The input whose pages start at or before {@code page}, skipping inputs without pages. */
+    private int inputOf(int[] firstPages, int page) {
+        int index = Arrays.binarySearch(firstPages, page);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        // Inputs without pages share their first page with the next one
+        while (index < firstPages.length - 1 && firstPages[index + 1] == page) {
+            index++;
+        }
+        while (index >= 0 && pages[index] == 0) {
+            index--;
+        }
+        return index;
+    }
+
+    /** The deepest directory that holds every input, or {@code null} when they share none. */
+    private Path commonDirectory() {
+        Path common = null;
+        boolean first = true;
+        for (Path input : inputs) {
+            if (InputScanner.STANDARD_INPUT.equals(input)) {
+                continue;
+            }
+            Path parent = input.getParent();
+            if (first) {
+                common = parent;
+                first = false;
+            }
+            while (common != null && (parent == null || !parent.startsWith(common))) {
+                common = common.getParent();
+            }
+        }
+        return common;
+    }
+
+    /** Names of the directories from {@code root} down to the one holding {@code input}. */
+    private static List<String> directories(Path root, Path input) {
+        List<String> names = new ArrayList<>();
+        Path parent = input.getParent();
+        if (InputScanner.STANDARD_INPUT.equals(input) || parent == null || !parent.startsWith(root)) {
+            return names;
+        }
+        for (Path name : root.relativize(parent)) {
+            if (!name.toString().isEmpty()) {
+                names.add(name.toString());
+            }
+        }
+        return names;
+    }
+
+    private static String title(Path input) {
+        if (InputScanner.STANDARD_INPUT.equals(input)) {
+            return "Standard input";
+        }
+        String name = input.getFileName().toString();
+        return name.toLowerCase(Locale.ROOT).endsWith(".pdf") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    private static PDOutlineItem item(String title, PDPage page) {
+        PDOutlineItem item = new PDOutlineItem();
+        item.setTitle(title);
+        item.setDestination(page);
+        return item;
+    }
+}
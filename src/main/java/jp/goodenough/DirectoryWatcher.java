@@ -0,0 +1,131 @@
+package jp.goodenough;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Waits for changes below a directory that may affect the list of inputs, for {@code --watch}.
+ *
+ * <p>Every directory of the tree is registered with a {@link WatchService}, and directories created later are
+ * registered as they appear. Events are collected until none has arrived for the quiet period, so copying a batch of
+ * files produces one re-merge instead of one per file. Events that cannot change the inputs are dropped before they
+ * count: files that are not candidates for the configured detection, and anything the caller ignores, such as the
+ * output and its sidecar files.
+ */
+final class DirectoryWatcher implements Closeable {
+
+    /** Quiet period used when no explicit value is given. */
+    static final long DEFAULT_QUIET_MILLIS = 1000;
+
+    private final WatchService service;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> watched = new HashSet<>();
+    private final long quietMillis;
+    private final InputScanner.Detection detection;
+    private final Predicate<Path> ignored;
+
+    DirectoryWatcher(Path root, long quietMillis, InputScanner.Detection detection, Predicate<Path> ignored)
+            throws IOException {
+        this.service = root.getFileSystem().newWatchService();
+        this.quietMillis = quietMillis;
+        this.detection = detection;
+        this.ignored = ignored;
+        try {
+            registerTree(root);
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Block until a relevant change has been followed by the quiet period. Returns {@code false} once the watcher is
+     * closed.
+     */
+    boolean awaitChange() throws InterruptedException {
+        try {
+            boolean relevant = false;
+            WatchKey key = service.take();
+            while (true) {
+                relevant |= drain(key);
+                key = service.poll(quietMillis, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    if (relevant) {
+                        return true;
+                    }
+                    key = service.take();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                directories.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                watched.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Consume the events of {@code key}; returns whether any of them may change the inputs. */
+    private boolean drain(WatchKey key) {
+        Path dir = directories.get(key);
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                relevant = true;
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (ignored.test(child)) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    registerTree(child);
+                } catch (IOException e) {
+                    // Removed again before it could be registered; the rescan sees the current state either way
+                }
+                relevant = true;
+            } else if (detection == InputScanner.Detection.CONTENT || InputScanner.isPdf(child)
+                    || event.kind() == StandardWatchEventKinds.ENTRY_DELETE && watched.contains(child)) {
+                relevant = true;
+            }
+        }
+        if (!key.reset()) {
+            // The directory itself is gone
+            watched.remove(directories.remove(key));
+            relevant = true;
+        }
+        return relevant;
+    }
+}
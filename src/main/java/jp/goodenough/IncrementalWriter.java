@@ -0,0 +1,219 @@
+package jp.goodenough;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Appends the changes made to a loaded document to its file as a PDF incremental update.
+ *
+ * <p>In incremental mode, {@link COSWriter} writes objects that are new, plus existing objects flagged with
+ * {@code setNeedToBeUpdated}. Appending pages changes the page tree, and it may also change the outline, AcroForm,
+ * structure tree, name trees and document information. So every dictionary and array reachable from the catalog and
+ * the information dictionary is flagged, except pages and streams. Page content, fonts and images of the existing
+ * pages are never rewritten.
+ *
+ * <p>{@code COSWriter} copies the original file in front of the update. Here the update is appended to the file in
+ * place, so the writer is given a stand-in for the original bytes that has the right length but is never read, and
+ * those bytes are dropped on the way out. An update that fails halfway is cut off again, so the file is left as it
+ * was.
+ */
+final class IncrementalWriter {
+
+    private IncrementalWriter() {
+    }
+
+    /**
+     * Append the update to {@code file}, which must still be the {@code originalLength} bytes {@code document} was
+     * loaded from. Returns the number of bytes appended.
+     */
+    static long append(PDDocument document, Path file, long originalLength, OutputFile.Fsync fsync)
+            throws IOException {
+        markStructure(document);
+        OutputFile out = OutputFile.append(file, fsync);
+        try {
+            if (out.channel().size() != originalLength) {
+                throw new IOException("Output changed while appending to it: " + file);
+            }
+            COSWriter writer = new COSWriter(new SkippingOutputStream(out, originalLength),
+                    new PlaceholderRead(originalLength));
+            writer.write(document);
+            // Closing the writer closes the output as well, which applies the fsync policy. It is not closed when the
+            // write fails, since that would keep the part of the update already buffered.
+            writer.close();
+        } catch (IOException | RuntimeException e) {
+            // A truncated update at the end of the file would leave it unreadable
+            out.discard(e);
+            throw e;
+        }
+        return Files.size(file) - originalLength;
+    }
+
+    /** Flag the document-level structure for rewriting; pages and streams are left alone. */
+    static void markStructure(PDDocument document) {
+        Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> pending = new ArrayDeque<>();
+        pending.push(document.getDocumentCatalog().getCOSObject());
+        COSBase info = document.getDocument().getTrailer().getDictionaryObject(COSName.INFO);
+        if (info != null) {
+            pending.push(info);
+        }
+        while (!pending.isEmpty()) {
+            COSBase base = pending.pop();
+            if (base instanceof COSObject ref) {
+                base = ref.getObject();
+            }
+            if (base == null || base instanceof COSStream || !seen.add(base)) {
+                continue;
+            }
+            if (base instanceof COSArray array) {
+                array.setNeedToBeUpdated(true);
+                for (COSBase element : array) {
+                    if (element != null) {
+                        pending.push(element);
+                    }
+                }
+            } else if (base instanceof COSDictionary dict && !COSName.PAGE.equals(dict.getCOSName(COSName.TYPE))) {
+                dict.setNeedToBeUpdated(true);
+                for (COSBase value : dict.getValues()) {
+                    if (value != null) {
+                        pending.push(value);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Drops the first {@code skip} bytes written to it. */
+    private static final class SkippingOutputStream extends FilterOutputStream {
+
+        private long skip;
+
+        SkippingOutputStream(OutputStream out, long skip) {
+            super(out);
+            this.skip = skip;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (skip > 0) {
+                skip--;
+            } else {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int dropped = (int) Math.min(skip, len);
+            skip -= dropped;
+            if (len > dropped) {
+                out.write(b, off + dropped, len - dropped);
+            }
+        }
+    }
+
+    /** Stands in for the original file: it has the original length, and its content is never looked at. */
+    private static final class PlaceholderRead implements RandomAccessRead {
+
+        private final long length;
+        private long position;
+        private boolean closed;
+
+        PlaceholderRead(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            if (position >= length) {
+                return -1;
+            }
+            position++;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b) {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int len) {
+            if (position >= length) {
+                return -1;
+            }
+            // The buffer is left as it is: SkippingOutputStream discards it
+            int n = (int) Math.min(len, length - position);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void seek(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public int peek() {
+            return position >= length ? -1 : 0;
+        }
+
+        @Override
+        public void rewind(int bytes) {
+            position -= bytes;
+        }
+
+        @Override
+        public byte[] readFully(int len) {
+            position += len;
+            return new byte[len];
+        }
+
+        @Override
+        public boolean isEOF() {
+            return position >= length;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Resolves command-line inputs to the list of PDF files to merge.
+ *
+ * <p>Directories are walked without following symbolic links, exactly like {@link Files#walkFileTree(Path,
+ * java.nio.file.FileVisitor)}. With more than one scan thread, each directory is read on its own virtual thread and a
+ * semaphore bounds how many directories are read at once. Each entry is stat'ed once, and that result decides whether
+ * it is descended into or treated as a file. The result is sorted, so it does not depend on the scan order.
+ *
+ * <p>With an index directory, directories and content verdicts that are unchanged since the previous scan are taken
+ * from a {@link ScanIndex} instead of being read again.
+ */
+final class InputScanner {
+
+    /** Concurrent directory reads used when no explicit value is given. */
+    static final int DEFAULT_SCAN_THREADS = 16;
+
+    /** Stands for standard input among the resolved inputs; given as {@code -} on the command line. */
+    static final Path STANDARD_INPUT = Paths.get("-");
+
+    /** How a candidate file is recognized as a PDF. */
+    enum Detection {
+        /** By a {@code .pdf} file name extension only. */
+        EXTENSION,
+        /** By the {@code %PDF-} header and the {@code startxref}/{@code %%EOF} trailer, whatever the name. */
+        CONTENT
+    }
+
+    /** The header may be preceded by garbage; PDF readers look for it within the first 1024 bytes. */
+    private static final int HEAD_BYTES = 1024;
+    private static final int TAIL_BYTES = 1024;
+    private static final byte[] HEADER = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EOF_MARKER = "%%EOF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STARTXREF = "startxref".getBytes(StandardCharsets.US_ASCII);
+
+    private final int scanThreads;
+    private final Detection detection;
+    private final Path indexDir;
+    private final PrintStream warnings;
+
+    InputScanner(MergeOptions options) {
+        this(options, System.err);
+    }
+
+    /** A scanner that reports skipped files to {@code warnings}. */
+    InputScanner(MergeOptions options, PrintStream warnings) {
+        this.scanThreads = options.scanThreads();
+        this.detection = options.detection();
+        this.indexDir = options.indexDir();
+        this.warnings = warnings;
+    }
+
+    /**
+     * Resolve {@code inputs} to PDF files in alphabetical order, preceded by {@link #STANDARD_INPUT} if one of them is
+     * {@code -}. A file that is really named {@code -} can be given as {@code ./-}.
+     */
+    List<Path> resolve(List<String> inputs) throws IOException {
+        List<Path> collected = new ArrayList<>();
+        List<Path> explicit = new ArrayList<>();
+        boolean standardInput = false;
+        for (String in : inputs) {
+            if (STANDARD_INPUT.toString().equals(in)) {
+                if (standardInput) {
+                    throw new IOException("Standard input can only be read once");
+                }
+                standardInput = true;
+                continue;
+            }
+            Path p = Paths.get(in);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                throw new IOException("Path does not exist: " + p, e);
+            }
+            if (attrs.isDirectory()) {
+                ScanIndex index = indexDir == null ? null : ScanIndex.load(indexDir, p);
+                List<Path> found = scanRoot(p, index);
+                if (detection == Detection.CONTENT) {
+                    found = sniffAll(found, false, index);
+                }
+                collected.addAll(found);
+                if (index != null) {
+                    try {
+                        index.save();
+                    } catch (IOException e) {
+                        warnings.println("Warning: Could not write scan index for " + p + ": " + e.getMessage());
+                    }
+                }
+            } else if (attrs.isRegularFile()) {
+                if (detection == Detection.CONTENT || isPdf(p)) {
+                    explicit.add(p);
+                } else {
+                    warnings.println("Warning: Skipping non-PDF file: " + p);
+                }
+            }
+        }
+        if (detection == Detection.CONTENT) {
+            explicit = sniffAll(explicit, true, null);
+        }
+        for (Path p : explicit) {
+            collected.add(p.toAbsolutePath().normalize());
+        }
+        // Deterministic order: alphabetical by normalized absolute path
+        collected.sort(Comparator.comparing(Path::toString, String.CASE_INSENSITIVE_ORDER));
+        if (standardInput) {
+            collected.add(0, STANDARD_INPUT);
+        }
+        return collected;
+    }
+
+    static boolean isPdf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return false;
+        String ext = name.substring(dot + 1);
+        return "pdf".equalsIgnoreCase(ext);
+    }
+
+    /**
+     * Check the PDF header and trailer markers with two small positional reads.
+     *
+     * <p>This does not prove the file is well formed, but it rejects truncated downloads and non-PDF content before
+     * any parsing is attempted.
+     */
+    static boolean looksLikePdf(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER.length + EOF_MARKER.length) {
+                return false;
+            }
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(HEAD_BYTES, size));
+            readFully(channel, head, 0);
+            if (indexOf(head, HEADER) < 0) {
+                return false;
+            }
+            ByteBuffer tail = ByteBuffer.allocate((int) Math.min(TAIL_BYTES, size));
+            readFully(channel, tail, size - tail.capacity());
+            return indexOf(tail, STARTXREF) >= 0 && indexOf(tail, EOF_MARKER) >= 0;
+        }
+    }
+
+    /** {@link #looksLikePdf(Path)}, reusing the verdict of the previous scan while the file is unchanged. */
+    private static boolean looksLikePdf(Path file, ScanIndex index) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        if (!attrs.isRegularFile()) {
+            return false;
+        }
+        Boolean known = index.verdict(file, attrs);
+        if (known != null) {
+            return known;
+        }
+        boolean pdf = looksLikePdf(file);
+        index.record(file, attrs, pdf);
+        return pdf;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private static int indexOf(ByteBuffer haystack, byte[] needle) {
+        outer:
+        for (int i = haystack.position(); i <= haystack.limit() - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack.get(i + j) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Keep the candidates whose content looks like a PDF, checking them concurrently. */
+    private List<Path> sniffAll(List<Path> candidates, boolean explicit, ScanIndex index) throws IOException {
+        Semaphore permits = new Semaphore(scanThreads);
+        List<Future<Boolean>> verdicts = new ArrayList<>(candidates.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path candidate : candidates) {
+                verdicts.add(executor.submit(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        return index == null ? looksLikePdf(candidate) : looksLikePdf(candidate, index);
+                    } catch (IOException e) {
+                        // Unreadable candidates (broken links, permissions) are skipped like non-PDF content
+                        return false;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            List<Path> accepted = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                Path candidate = candidates.get(i);
+                if (await(verdicts.get(i))) {
+                    accepted.add(candidate);
+                } else if (explicit) {
+                    warnings.println("Warning: Skipping non-PDF file: " + candidate);
+                } else if (isPdf(candidate)) {
+                    warnings.println("Warning: Skipping invalid PDF: " + candidate);
+                }
+            }
+            return accepted;
+        }
+    }
+
+    /** Whether a non-directory entry found in a walk is a candidate for the configured detection. */
+    private boolean isCandidate(Path file, BasicFileAttributes attrs) {
+        if (detection == Detection.EXTENSION) {
+            return isPdf(file);
+        }
+        // Only read regular files (or links to them); opening a FIFO or device would block or misbehave
+        return attrs.isRegularFile() || attrs.isSymbolicLink() && Files.isRegularFile(file);
+    }
+
+    private List<Path> scanRoot(Path root, ScanIndex index) throws IOException {
+        if (scanThreads == 1 && index == null) {
+            return walkSequential(root);
+        }
+        // A root that is a symbolic link to a directory is visited as a file by walkFileTree; keep that behavior
+        BasicFileAttributes rootAttrs =
+                Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!rootAttrs.isDirectory()) {
+            return isCandidate(root, rootAttrs) ? List.of(root.toAbsolutePath().normalize()) : List.of();
+        }
+        Semaphore permits = new Semaphore(scanThreads);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            return scanDirectory(root, rootAttrs, executor, permits, index);
+        }
+    }
+
+    private List<Path> walkSequential(Path root) throws IOException {
+        List<Path> collected = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isCandidate(file, attrs)) {
+                    collected.add(file.toAbsolutePath().normalize());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return collected;
+    }
+
+    /**
+     * Read one directory, then scan its subdirectories on separate virtual threads and wait for them. With an index,
+     * {@code attrs} are those of {@code dir} taken before it is read, or {@code null} to stat it here.
+     */
+    private List<Path> scanDirectory(Path dir, BasicFileAttributes attrs, ExecutorService executor, Semaphore permits,
+            ScanIndex index) throws IOException {
+        if (index != null && attrs == null) {
+            attrs = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        List<Path> collected = new ArrayList<>();
+        List<Path> subdirs = new ArrayList<>();
+        ScanIndex.Listing listing = index == null ? null : index.listing(dir, attrs);
+        if (listing != null) {
+            for (String name : listing.directories()) {
+                subdirs.add(dir.resolve(name));
+            }
+            for (String name : listing.files()) {
+                Path entry = dir.resolve(name);
+                // Content candidates are stat'ed before they are sniffed, which drops anything but regular files
+                if (detection == Detection.CONTENT || isPdf(entry)) {
+                    collected.add(entry.toAbsolutePath().normalize());
+                }
+            }
+        } else {
+            List<String> directoryNames = new ArrayList<>();
+            List<String> fileNames = new ArrayList<>();
+            permits.acquireUninterruptibly();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes entryAttrs =
+                            Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (entryAttrs.isDirectory()) {
+                        subdirs.add(entry);
+                    } else if (isCandidate(entry, entryAttrs)) {
+                        collected.add(entry.toAbsolutePath().normalize());
+                    }
+                    if (index != null) {
+                        (entryAttrs.isDirectory() ? directoryNames : fileNames).add(entry.getFileName().toString());
+                    }
+                }
+            } finally {
+                permits.release();
+            }
+            if (index != null) {
+                index.record(dir, attrs, directoryNames, fileNames);
+            }
+        }
+
+        List<Future<List<Path>>> children = new ArrayList<>(subdirs.size());
+        for (Path subdir : subdirs) {
+            children.add(executor.submit(() -> scanDirectory(subdir, null, executor, permits, index)));
+        }
+        for (Future<List<Path>> child : children) {
+            collected.addAll(await(child));
+        }
+        return collected;
+    }
+
+    private static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning inputs", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
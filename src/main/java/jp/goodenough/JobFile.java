@@ -0,0 +1,232 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Reads the merges of a {@code --jobs} file: one output and its inputs per job.
+ *
+ * <p>A {@code .json} file holds an array of objects such as {@code {"output": "acme.pdf", "inputs": ["acme"]}}.
+ * Any other file is CSV, one job per line: the output followed by its inputs, quoted as in RFC 4180 where a field
+ * contains a comma or a quote. Blank lines and lines starting with {@code #} are skipped. Relative paths are resolved
+ * against the directory of the job file, so a job file can be moved together with the folders it refers to.
+ */
+final class JobFile {
+
+    /** One merge: its inputs, which are files or directories as on the command line, and its output. */
+    record Job(List<String> inputs, String output) {
+    }
+
+    private JobFile() {
+    }
+
+    /**
+     * Read the jobs in {@code file}. Malformed content, a job without inputs and two jobs writing the same output are
+     * reported as {@link IllegalArgumentException}.
+     */
+    static List<Job> read(Path file) throws IOException {
+        String text = Files.readString(file, StandardCharsets.UTF_8);
+        if (text.startsWith("\uFEFF")) {
+            // Byte order mark, as spreadsheet applications write it
+            text = text.substring(1);
+        }
+        List<Job> parsed = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json")
+                ? new JsonReader(text).jobs()
+                : readCsv(text);
+        Path base = file.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>(parsed.size());
+        Set<Path> outputs = new HashSet<>();
+        for (Job job : parsed) {
+            if (job.output() == null || job.output().isEmpty()) {
+                throw new IllegalArgumentException("Job " + (jobs.size() + 1) + " has no output");
+            }
+            if (job.inputs().isEmpty()) {
+                throw new IllegalArgumentException("Job " + (jobs.size() + 1) + " has no inputs: " + job.output());
+            }
+            Path output = base.resolve(job.output()).normalize();
+            if (!outputs.add(output)) {
+                throw new IllegalArgumentException("More than one job writes " + output);
+            }
+            List<String> inputs = new ArrayList<>(job.inputs().size());
+            for (String input : job.inputs()) {
+                if (input.isEmpty()) {
+                    throw new IllegalArgumentException("Job " + (jobs.size() + 1) + " has an empty input: " + output);
+                }
+                inputs.add(base.resolve(input).normalize().toString());
+            }
+            jobs.add(new Job(List.copyOf(inputs), output.toString()));
+        }
+        return jobs;
+    }
+
+    private static List<Job> readCsv(String text) {
+        List<Job> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : text.split("\r?\n")) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> fields = csvFields(line, lineNumber);
+            jobs.add(new Job(fields.subList(1, fields.size()), fields.get(0)));
+        }
+        return jobs;
+    }
+
+    private static List<String> csvFields(String line, int lineNumber) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.isEmpty()) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quote on line " + lineNumber);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /** Just enough JSON for an array of job objects; anything else is rejected with its position. */
+    private static final class JsonReader {
+
+        private final String text;
+        private int pos;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        List<Job> jobs() {
+            List<Job> jobs = new ArrayList<>();
+            expect('[');
+            if (!consume(']')) {
+                do {
+                    jobs.add(job());
+                } while (consume(','));
+                expect(']');
+            }
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("Unexpected content after the job array");
+            }
+            return jobs;
+        }
+
+        private Job job() {
+            String output = null;
+            List<String> inputs = new ArrayList<>();
+            expect('{');
+            if (!consume('}')) {
+                do {
+                    String key = string();
+                    expect(':');
+                    switch (key) {
+                        case "output" -> output = string();
+                        case "inputs" -> {
+                            expect('[');
+                            if (!consume(']')) {
+                                do {
+                                    inputs.add(string());
+                                } while (consume(','));
+                                expect(']');
+                            }
+                        }
+                        default -> throw error("Unknown key \"" + key + "\"");
+                    }
+                } while (consume(','));
+                expect('}');
+            }
+            return new Job(inputs, output);
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case '"', '\\', '/' -> value.append(escaped);
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > text.length()) {
+                            throw error("Truncated \\u escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid \\u escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> throw error("Invalid escape \\" + escaped);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + pos);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package jp.goodenough;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the jobs of a {@code --jobs} file in this JVM on a bounded pool of workers.
+ *
+ * <p>Each job is run as {@link Main#run} with its own {@code -o} and inputs plus the options shared by all jobs, so it
+ * behaves like a separate invocation and has the same exit codes. Its output is collected and printed in one piece
+ * when it finishes, followed by a status line, so the output of jobs running at the same time is not interleaved.
+ */
+final class JobRunner {
+
+    /** Exit code when at least one job failed. */
+    static final int JOBS_FAILED = 8;
+
+    private final Path workingDir;
+    private final List<String> sharedArgs;
+    private final int workers;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    JobRunner(Path workingDir, List<String> sharedArgs, int workers, PrintStream out, PrintStream err) {
+        this.workingDir = workingDir;
+        this.sharedArgs = List.copyOf(sharedArgs);
+        this.workers = workers;
+        this.out = out;
+        this.err = err;
+    }
+
+    /** Run {@code jobs} and print a summary; returns {@code 0} if every job succeeded, else {@link #JOBS_FAILED}. */
+    int run(List<JobFile.Job> jobs) {
+        long start = System.nanoTime();
+        AtomicInteger finished = new AtomicInteger();
+        List<Future<Integer>> exits = new ArrayList<>(jobs.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, Math.max(1, jobs.size())));
+        try {
+            for (JobFile.Job job : jobs) {
+                exits.add(executor.submit(() -> runJob(job, finished, jobs.size())));
+            }
+            List<String> failed = new ArrayList<>();
+            for (int i = 0; i < jobs.size(); i++) {
+                if (await(exits.get(i), jobs.get(i), finished, jobs.size()) != 0) {
+                    failed.add(jobs.get(i).output());
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            out.println("Jobs: " + jobs.size() + ", succeeded: " + (jobs.size() - failed.size()) + ", failed: "
+                    + failed.size() + " (" + millis + " ms)");
+            for (String output : failed) {
+                err.println("Failed: " + output);
+            }
+            return failed.isEmpty() ? 0 : JOBS_FAILED;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int runJob(JobFile.Job job, AtomicInteger finished, int total) {
+        ByteArrayOutputStream stdoutBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderrBytes = new ByteArrayOutputStream();
+        PrintStream stdout = new PrintStream(stdoutBytes, true, StandardCharsets.UTF_8);
+        PrintStream stderr = new PrintStream(stderrBytes, true, StandardCharsets.UTF_8);
+        List<String> args = new ArrayList<>(sharedArgs);
+        args.add("-o");
+        args.add(job.output());
+        args.addAll(job.inputs());
+        int exit;
+        try {
+            exit = new Main(stdout, stderr, workingDir).run(args.toArray(new String[0]));
+        } catch (RuntimeException e) {
+            // One broken job must not take the others down with it
+            stderr.println("Failed to merge PDFs: " + e);
+            exit = 6;
+        }
+        synchronized (this) {
+            out.print(stdoutBytes.toString(StandardCharsets.UTF_8));
+            err.print(stderrBytes.toString(StandardCharsets.UTF_8));
+            String status = exit == 0 ? "OK" : "FAILED (exit " + exit + ")";
+            out.println("[" + finished.incrementAndGet() + "/" + total + "] " + status + ": " + job.output());
+        }
+        return exit;
+    }
+
+    private int await(Future<Integer> exit, JobFile.Job job, AtomicInteger finished, int total) {
+        try {
+            return exit.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 6;
+        } catch (ExecutionException e) {
+            // runJob catches exceptions, so this is an error, such as running out of memory, that ended the job early
+            synchronized (this) {
+                err.println("Failed to merge PDFs into " + job.output() + ": " + e.getCause());
+                out.println("[" + finished.incrementAndGet() + "/" + total + "] FAILED (exit 6): " + job.output());
+            }
+            return 6;
+        }
+    }
+}
@@ -2,19 +2,18 @@ package jp.goodenough;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.FileVisitResult;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import java.util.function.Predicate;
 
 /**
  * Command-line PDF merger.
@@ -22,9 +21,30 @@ import org.apache.pdfbox.multipdf.PDFMergerUtility;
  * <p>Constraints supported:
  * - Accept multiple PDF files as inputs.
  * - Accept directories; when a directory is specified, recursively collect all PDFs under it.
+ * - Accept page selections on input files, such as report.pdf[1-3,10]; only those pages are copied.
  * - Allow specifying output filename with -o option.
+ * - Write the merged PDF to standard output with -o -, and read an input PDF from standard input given as -.
  * - If a single directory is specified without -o, use the directory name as the output file name
  *   (created in the current working directory).
+ * - Optionally cap heap use per merge with --max-memory; the remainder spills to --scratch-dir.
+ * - Optionally split the output into numbered parts with --max-output-bytes / --max-output-pages.
+ * - Optionally merge with --streaming so only one input is open at a time.
+ * - Optionally read inputs through memory mappings with --mmap instead of heap buffers.
+ * - Optionally open the next inputs ahead of the one being appended with --prefetch.
+ * - Optionally build the parts of a split output in parallel with --parallelism; for one output it opens inputs
+ *   ahead as --prefetch does.
+ * - Optionally recognize PDFs by content (--detect content) instead of by the .pdf extension.
+ * - Optionally keep a scan index with --index-dir so repeat runs only re-read directories that changed.
+ * - Optionally force the output to storage with --fsync end or --fsync dir.
+ * - Optionally share identical resources across merged documents with --dedup.
+ * - Optionally skip the document-level merges and copy only pages with --profile pages-only.
+ * - Optionally add a bookmark per input, or a tree of them by directory, with --bookmarks files or --bookmarks tree.
+ * - Optionally compress unfiltered streams with --compact.
+ * - Optionally print per-phase timings and resource counters as JSON with --stats.
+ * - Optionally append only new inputs to the previous output with --incremental.
+ * - Optionally keep watching a single input directory with --watch and re-merge after changes settle.
+ * - Optionally run many merges from a --jobs file on a bounded pool of --workers in one JVM.
+ * - Optionally keep one JVM warm with --daemon SOCKET and send jobs to it with --connect SOCKET.
  *
  * <p>Usage examples:
  * - java -jar target/MergePDF-1.0-SNAPSHOT-shaded.jar -o merged.pdf a.pdf b.pdf
@@ -32,6 +52,34 @@ import org.apache.pdfbox.multipdf.PDFMergerUtility;
  */
 public class Main {
 
+    /** Stands for standard input as an input, or for standard output as the -o value. */
+    private static final String STANDARD_STREAM = "-";
+
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Path workingDir;
+
+    public Main() {
+        this(System.in, System.out, System.err, Paths.get(""));
+    }
+
+    /**
+     * Print to {@code out} and {@code err}, and resolve relative paths against {@code workingDir}. There is no standard
+     * input, as for a daemon job or one from a job file.
+     */
+    Main(PrintStream out, PrintStream err, Path workingDir) {
+        this(null, out, err, workingDir);
+    }
+
+    /** Like {@link #Main(PrintStream, PrintStream, Path)}, reading an input given as {@code -} from {@code in}. */
+    Main(InputStream in, PrintStream out, PrintStream err, Path workingDir) {
+        this.in = in;
+        this.out = Objects.requireNonNull(out, "out");
+        this.err = Objects.requireNonNull(err, "err");
+        this.workingDir = Objects.requireNonNull(workingDir, "workingDir");
+    }
+
     public static void main(String[] args) {
         int exit = new Main().run(args);
         if (exit != 0) {
@@ -46,144 +94,648 @@ public class Main {
         }
 
         String output = null;
+        String daemonSocket = null;
+        String connectSocket = null;
+        String jobsFile = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean printStats = false;
+        boolean watch = false;
+        long quietMillis = DirectoryWatcher.DEFAULT_QUIET_MILLIS;
+        List<String> forwarded = new ArrayList<>();
         List<String> inputs = new ArrayList<>();
+        MergeOptions.Builder options = MergeOptions.builder();
 
         for (int i = 0; i < args.length; i++) {
             String arg = args[i];
+            int start = i;
+            if ("--daemon".equals(arg) || "--connect".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: " + arg + " requires a socket path argument.");
+                    return 2;
+                }
+                if ("--daemon".equals(arg)) {
+                    daemonSocket = args[++i];
+                } else {
+                    connectSocket = args[++i];
+                }
+                continue;
+            }
             if ("-o".equals(arg) || "--output".equals(arg)) {
                 if (i + 1 >= args.length) {
-                    System.err.println("Error: -o/--output requires a filename argument.");
+                    err.println("Error: -o/--output requires a filename argument.");
                     return 2;
                 }
                 output = args[++i];
+            } else if ("--max-memory".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --max-memory requires a size argument (e.g. 512m, 2g).");
+                    return 2;
+                }
+                String size = args[++i];
+                try {
+                    options.maxMemoryBytes(parseSize(size));
+                } catch (IllegalArgumentException e) {
+                    err.println("Error: Invalid --max-memory size: " + size);
+                    return 2;
+                }
+            } else if ("--max-output-bytes".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --max-output-bytes requires a size argument (e.g. 200m).");
+                    return 2;
+                }
+                String size = args[++i];
+                try {
+                    options.maxOutputBytes(parseSize(size));
+                } catch (IllegalArgumentException e) {
+                    err.println("Error: Invalid --max-output-bytes size: " + size);
+                    return 2;
+                }
+            } else if ("--jobs".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --jobs requires a job file argument.");
+                    return 2;
+                }
+                jobsFile = args[++i];
+            } else if ("--workers".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --workers requires a number argument.");
+                    return 2;
+                }
+                String value = args[++i];
+                try {
+                    workers = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    workers = 0;
+                }
+                if (workers < 1) {
+                    err.println("Error: Invalid --workers value: " + value);
+                    return 2;
+                }
+            } else if ("--index-dir".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --index-dir requires a directory argument.");
+                    return 2;
+                }
+                options.indexDir(workingDir.resolve(args[++i]));
+            } else if ("--scratch-dir".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --scratch-dir requires a directory argument.");
+                    return 2;
+                }
+                options.scratchDir(workingDir.resolve(args[++i]));
+            } else if ("--detect".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --detect requires 'extension' or 'content'.");
+                    return 2;
+                }
+                String mode = args[++i];
+                if ("extension".equals(mode)) {
+                    options.detection(InputScanner.Detection.EXTENSION);
+                } else if ("content".equals(mode)) {
+                    options.detection(InputScanner.Detection.CONTENT);
+                } else {
+                    err.println("Error: Invalid --detect mode: " + mode);
+                    return 2;
+                }
+            } else if ("--fsync".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --fsync requires 'none', 'end' or 'dir'.");
+                    return 2;
+                }
+                String policy = args[++i];
+                if ("none".equals(policy)) {
+                    options.fsync(OutputFile.Fsync.NONE);
+                } else if ("end".equals(policy)) {
+                    options.fsync(OutputFile.Fsync.END);
+                } else if ("dir".equals(policy)) {
+                    options.fsync(OutputFile.Fsync.DIRECTORY);
+                } else {
+                    err.println("Error: Invalid --fsync policy: " + policy);
+                    return 2;
+                }
+            } else if ("--profile".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --profile requires 'full', 'optimized-resources' or 'pages-only'.");
+                    return 2;
+                }
+                String profile = args[++i];
+                if ("full".equals(profile)) {
+                    options.profile(PdfMerger.Profile.FULL);
+                } else if ("optimized-resources".equals(profile)) {
+                    options.profile(PdfMerger.Profile.OPTIMIZED_RESOURCES);
+                } else if ("pages-only".equals(profile)) {
+                    options.profile(PdfMerger.Profile.PAGES_ONLY);
+                } else {
+                    err.println("Error: Invalid --profile: " + profile);
+                    return 2;
+                }
+            } else if ("--bookmarks".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --bookmarks requires 'files' or 'tree'.");
+                    return 2;
+                }
+                String layout = args[++i];
+                if ("files".equals(layout)) {
+                    options.bookmarks(Bookmarks.Layout.FILES);
+                } else if ("tree".equals(layout)) {
+                    options.bookmarks(Bookmarks.Layout.TREE);
+                } else {
+                    err.println("Error: Invalid --bookmarks layout: " + layout);
+                    return 2;
+                }
+            } else if ("--dedup".equals(arg)) {
+                options.deduplicate(true);
+            } else if ("--compact".equals(arg)) {
+                options.compact(true);
+            } else if ("--mmap".equals(arg)) {
+                options.mmap(true);
+            } else if ("--pass-through".equals(arg)) {
+                options.passThrough(true);
+            } else if ("--watch".equals(arg)) {
+                watch = true;
+            } else if ("--debounce".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: --debounce requires a number of milliseconds.");
+                    return 2;
+                }
+                String value = args[++i];
+                try {
+                    quietMillis = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    quietMillis = -1;
+                }
+                if (quietMillis < 0) {
+                    err.println("Error: Invalid --debounce value: " + value);
+                    return 2;
+                }
+            } else if ("--incremental".equals(arg)) {
+                options.incremental(true);
+            } else if ("--stats".equals(arg)) {
+                printStats = true;
+            } else if ("--streaming".equals(arg)) {
+                options.streaming(true);
+            } else if ("--parallelism".equals(arg) || "--scan-threads".equals(arg)
+                    || "--prefetch".equals(arg) || "--max-output-pages".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    err.println("Error: " + arg + " requires a number argument.");
+                    return 2;
+                }
+                String value = args[++i];
+                try {
+                    if ("--parallelism".equals(arg)) {
+                        options.parallelism(Integer.parseInt(value));
+                    } else if ("--scan-threads".equals(arg)) {
+                        options.scanThreads(Integer.parseInt(value));
+                    } else if ("--prefetch".equals(arg)) {
+                        options.prefetch(Integer.parseInt(value));
+                    } else {
+                        options.maxOutputPages(Integer.parseInt(value));
+                    }
+                } catch (IllegalArgumentException e) {
+                    err.println("Error: Invalid " + arg + " value: " + value);
+                    return 2;
+                }
             } else if ("-h".equals(arg) || "--help".equals(arg)) {
                 printUsage();
                 return 0;
             } else {
                 inputs.add(arg);
             }
+            // The option with its value, if it took one
+            forwarded.addAll(Arrays.asList(args).subList(start, i + 1));
+        }
+
+        if (daemonSocket != null && connectSocket != null) {
+            err.println("Error: --daemon and --connect cannot be combined.");
+            return 2;
+        }
+        if (daemonSocket != null) {
+            return serve(workingDir.resolve(daemonSocket));
+        }
+        if (connectSocket != null) {
+            Path socket = workingDir.resolve(connectSocket);
+            try {
+                return MergeDaemon.forward(socket, workingDir, forwarded, out, err);
+            } catch (IOException e) {
+                err.println("Error: Could not reach the daemon at " + socket + ": " + e.getMessage());
+                return 7;
+            }
+        }
+
+        if (jobsFile != null) {
+            if (!inputs.isEmpty() || output != null || watch) {
+                err.println("Error: --jobs cannot be combined with inputs, -o or --watch.");
+                return 2;
+            }
+            return runJobs(workingDir.resolve(jobsFile), forwarded, workers);
         }
 
         if (inputs.isEmpty()) {
-            System.err.println("Error: No input files or directories provided.");
+            err.println("Error: No input files or directories provided.");
             printUsage();
             return 2;
         }
 
+        // Split page selections such as report.pdf[1-3,10] off the file names
+        Map<Path, List<PageRange>> pageRanges = new HashMap<>();
+        List<String> paths = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+            int bracket = input.lastIndexOf('[');
+            if (bracket <= 0 || !input.endsWith("]") || Files.exists(workingDir.resolve(input))) {
+                paths.add(input);
+                continue;
+            }
+            String path = input.substring(0, bracket);
+            Path file = STANDARD_STREAM.equals(path)
+                    ? InputScanner.STANDARD_INPUT
+                    : workingDir.resolve(path).toAbsolutePath().normalize();
+            List<PageRange> ranges;
+            try {
+                ranges = PageRange.parseList(input.substring(bracket + 1, input.length() - 1));
+            } catch (IllegalArgumentException e) {
+                err.println("Error: Invalid page selection " + input + ": " + e.getMessage());
+                return 2;
+            }
+            if (Files.isDirectory(file)) {
+                err.println("Error: Pages can only be selected from files: " + input);
+                return 2;
+            }
+            if (pageRanges.put(file, ranges) != null) {
+                err.println("Error: More than one page selection for " + path);
+                return 2;
+            }
+            paths.add(path);
+        }
+
+        MergeOptions mergeOptions = options.build();
+        boolean toStandardOutput = STANDARD_STREAM.equals(output);
+        if (toStandardOutput && (watch || mergeOptions.incremental())) {
+            err.println("Error: -o - cannot be combined with --watch or --incremental.");
+            return 2;
+        }
+        if (mergeOptions.splitsOutput()
+                && (toStandardOutput || mergeOptions.incremental() || paths.contains(STANDARD_STREAM))) {
+            err.println("Error: --max-output-bytes and --max-output-pages cannot be combined with -o -, an input of -"
+                    + " or --incremental.");
+            return 2;
+        }
+        if (paths.contains(STANDARD_STREAM) && mergeOptions.incremental()) {
+            err.println("Error: Standard input cannot be an input of an --incremental merge.");
+            return 2;
+        }
+        if (mergeOptions.bookmarks() != Bookmarks.Layout.NONE && mergeOptions.incremental()) {
+            // An incremental update only writes the appended pages, not a new outline
+            err.println("Error: --bookmarks cannot be combined with --incremental.");
+            return 2;
+        }
+        if (!pageRanges.isEmpty() && mergeOptions.incremental()) {
+            // The manifest records files, not the pages taken from them
+            err.println("Error: Page selections cannot be combined with --incremental.");
+            return 2;
+        }
+        if (watch) {
+            if (paths.size() != 1 || !Files.isDirectory(workingDir.resolve(paths.get(0)))) {
+                err.println("Error: --watch requires a single directory input.");
+                return 2;
+            }
+            return watch(workingDir.resolve(paths.get(0)), outputPath(output, paths), mergeOptions, printStats,
+                    quietMillis);
+        }
+
         // Resolve inputs to a list of PDF file paths (recursively for directories)
+        MergeStats stats = new MergeStats();
         List<Path> pdfs;
         try {
-            pdfs = resolveInputs(inputs);
+            List<String> resolved = new ArrayList<>(paths.size());
+            for (String input : paths) {
+                resolved.add(STANDARD_STREAM.equals(input) ? input : workingDir.resolve(input).toString());
+            }
+            pdfs = resolveInputs(resolved, mergeOptions, stats, err);
         } catch (IOException e) {
-            System.err.println("Error while scanning inputs: " + e.getMessage());
+            err.println("Error while scanning inputs: " + e.getMessage());
             return 3;
         }
 
         if (pdfs.isEmpty()) {
-            System.err.println("Error: No PDF files found in the given inputs.");
+            err.println("Error: No PDF files found in the given inputs.");
             return 4;
         }
 
-        // Determine output path
-        Path outputPath;
-        if (output != null) {
-            outputPath = Paths.get(output);
-        } else if (inputs.size() == 1 && Files.isDirectory(Paths.get(inputs.get(0)))) {
-            String dirName = Paths.get(inputs.get(0)).getFileName().toString();
-            outputPath = Paths.get(dirName + ".pdf");
-        } else {
-            System.err.println("Error: Output filename must be specified with -o when not providing a single directory.");
+        if (toStandardOutput) {
+            return mergeAndReport(pdfs, pageRanges, null, mergeOptions, stats, printStats);
+        }
+        Path outputPath = outputPath(output, paths);
+        if (outputPath == null) {
+            err.println("Error: Output filename must be specified with -o when not providing a single directory.");
             printUsage();
             return 5;
         }
+        return mergeAndReport(pdfs, pageRanges, outputPath, mergeOptions, stats, printStats);
+    }
+
+    /** The -o path, or DIR.pdf in the working directory for a single directory input; {@code null} if neither. */
+    private Path outputPath(String output, List<String> inputs) {
+        if (output != null) {
+            return workingDir.resolve(output);
+        }
+        if (inputs.size() == 1 && Files.isDirectory(workingDir.resolve(inputs.get(0)))) {
+            String dirName = workingDir.resolve(inputs.get(0)).getFileName().toString();
+            return workingDir.resolve(dirName + ".pdf");
+        }
+        return null;
+    }
 
+    /** Merge into {@code outputPath}, or into standard output if it is {@code null}, and report the result. */
+    private int mergeAndReport(List<Path> pdfs, Map<Path, List<PageRange>> pageRanges, Path outputPath,
+            MergeOptions mergeOptions, MergeStats stats, boolean printStats) {
+        // Standard output carries the PDF itself, so every message goes to standard error instead
+        PrintStream report = outputPath == null ? err : out;
+        String target = outputPath == null ? "standard output" : outputPath.toString();
         try {
-            mergePdfs(pdfs, outputPath);
-            System.out.println("Merged " + pdfs.size() + " PDF(s) into: " + outputPath);
+            MergeResult result;
+            if (outputPath == null) {
+                result = new PdfMerger(mergeOptions, stats, in, pageRanges).merge(pdfs, out);
+                if (out.checkError()) {
+                    // PrintStream swallows write errors, such as a reader that went away
+                    throw new IOException("Could not write to standard output");
+                }
+            } else {
+                result = mergePdfs(pdfs, pageRanges, outputPath, mergeOptions, stats, in);
+            }
+            switch (result.update()) {
+                case APPENDED -> report.println("Appended " + result.documents() + " new PDF(s) to: " + target);
+                case UNCHANGED -> report.println("Already up to date: " + target);
+                default -> {
+                    if (result.parts().isEmpty()) {
+                        report.println("Merged " + pdfs.size() + " PDF(s) into: " + target);
+                    } else {
+                        report.println("Merged " + pdfs.size() + " PDF(s) into " + result.parts().size() + " part(s):");
+                        for (Path part : result.parts()) {
+                            report.println("  " + part);
+                        }
+                    }
+                }
+            }
+            if (mergeOptions.hasMemoryBudget()) {
+                report.println("Spilled to scratch (peak): " + result.spilledBytes() + " bytes");
+            }
+            if (printStats) {
+                report.println(stats.toJson(result));
+            }
             return 0;
         } catch (IOException e) {
-            System.err.println("Failed to merge PDFs: " + e.getMessage());
+            err.println("Failed to merge PDFs: " + e.getMessage());
             return 6;
         }
     }
 
-    private static void printUsage() {
-        System.out.println("Usage: java -jar MergePDF.jar [-o OUTPUT.pdf] <FILE_or_DIR> [<FILE_or_DIR> ...]");
-        System.out.println("  -o, --output  Specify output PDF filename.\n"
-                + "               If a single directory is provided and -o is omitted,\n"
-                + "               the directory name will be used as the output filename in the current directory.");
-        System.out.println("Examples:");
-        System.out.println("  java -jar MergePDF.jar -o merged.pdf a.pdf b.pdf");
-        System.out.println("  java -jar MergePDF.jar /path/to/dir");
-    }
-
-    private static List<Path> resolveInputs(List<String> inputs) throws IOException {
-        List<Path> collected = new ArrayList<>();
-        for (String in : inputs) {
-            Path p = Paths.get(in);
-            if (!Files.exists(p)) {
-                throw new IOException("Path does not exist: " + p);
-            }
-            if (Files.isDirectory(p)) {
-                Files.walkFileTree(p, new SimpleFileVisitor<>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                        if (isPdf(file)) {
-                            collected.add(file.toAbsolutePath().normalize());
-                        }
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
-            } else if (Files.isRegularFile(p)) {
-                if (isPdf(p)) {
-                    collected.add(p.toAbsolutePath().normalize());
-                } else {
-                    System.err.println("Warning: Skipping non-PDF file: " + p);
+    /**
+     * Merge {@code dir}, then merge it again whenever its PDFs change, until the process is terminated.
+     *
+     * <p>After a burst of events has settled the directory is rescanned, and the paths, sizes and modification times of
+     * the PDFs are compared with those of the last merge; nothing is merged if they are the same. The output and its
+     * sidecar files, its parts when it is split, and the temporary files they are written to first, are never inputs
+     * here, even when they are inside {@code dir}, or each merge would trigger the next.
+     */
+    private int watch(Path dir, Path outputPath, MergeOptions options, boolean printStats, long quietMillis) {
+        Predicate<Path> ignored = outputFiles(outputPath, options.splitsOutput());
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, quietMillis, options.detection(), ignored)) {
+            out.println("Watching: " + dir);
+            List<MergeManifest.Entry> merged = null;
+            do {
+                MergeStats stats = new MergeStats();
+                List<Path> pdfs;
+                List<MergeManifest.Entry> current;
+                try {
+                    pdfs = new ArrayList<>(resolveInputs(List.of(dir.toString()), options, stats, err));
+                    pdfs.removeIf(ignored);
+                    current = MergeManifest.describe(pdfs);
+                } catch (IOException e) {
+                    // Typically a file removed during the scan; its event triggers another round
+                    err.println("Error while scanning inputs: " + e.getMessage());
+                    continue;
                 }
+                if (current.equals(merged)) {
+                    continue;
+                }
+                merged = current;
+                if (pdfs.isEmpty()) {
+                    err.println("Error: No PDF files found in the given inputs.");
+                    continue;
+                }
+                mergeAndReport(pdfs, Map.of(), outputPath, options, stats, printStats);
+            } while (watcher.awaitChange());
+            return 0;
+        } catch (IOException e) {
+            err.println("Error: Could not watch " + dir + ": " + e.getMessage());
+            return 3;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    /** Run every job in {@code file} with the options in {@code args}; see {@link JobRunner}. */
+    private int runJobs(Path file, List<String> args, int workers) {
+        List<JobFile.Job> jobs;
+        try {
+            jobs = JobFile.read(file);
+        } catch (IOException e) {
+            err.println("Error: Could not read job file " + file + ": " + e.getMessage());
+            return 2;
+        } catch (IllegalArgumentException e) {
+            err.println("Error: Invalid job file " + file + ": " + e.getMessage());
+            return 2;
+        }
+        if (jobs.isEmpty()) {
+            err.println("Error: No jobs in " + file);
+            return 2;
+        }
+        List<String> shared = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            if ("--jobs".equals(args.get(i)) || "--workers".equals(args.get(i))) {
+                i++;
+            } else {
+                shared.add(args.get(i));
+            }
+        }
+        return new JobRunner(workingDir, shared, workers, out, err).run(jobs);
+    }
+
+    /** Serve merge jobs on {@code socket} until the process is terminated. */
+    private int serve(Path socket) {
+        MergeDaemon daemon;
+        try {
+            daemon = MergeDaemon.bind(socket, err);
+        } catch (IOException e) {
+            err.println("Error: Could not listen on " + socket + ": " + e.getMessage());
+            return 7;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                daemon.close();
+            } catch (IOException ignore) {
+                // The process is exiting anyway
             }
+        }));
+        out.println("Listening on: " + socket);
+        try {
+            daemon.serve();
+            return 0;
+        } catch (IOException e) {
+            err.println("Error: Daemon stopped: " + e.getMessage());
+            return 7;
         }
-        // Deterministic order: alphabetical by normalized absolute path
-        Collections.sort(collected, Comparator.comparing(Path::toString, String.CASE_INSENSITIVE_ORDER));
-        return collected;
     }
 
-    private static boolean isPdf(Path file) {
-        String name = file.getFileName().toString();
-        int dot = name.lastIndexOf('.');
-        if (dot < 0) return false;
-        String ext = name.substring(dot + 1);
-        return "pdf".equalsIgnoreCase(ext);
+    private void printUsage() {
+        out.println("Usage: java -jar MergePDF.jar [options] [-o OUTPUT.pdf] <FILE_or_DIR> [<FILE_or_DIR> ...]");
+        out.println("  -o, --output  Specify output PDF filename.\n"
+                + "               If a single directory is provided and -o is omitted,\n"
+                + "               the directory name will be used as the output filename in the current directory.\n"
+                + "               With -o -, the PDF is written to standard output and messages to standard error.");
+        out.println("  -             As an input, read a PDF from standard input; it is merged before the others.");
+        out.println("  FILE[PAGES]   Merge only the given pages of FILE, e.g. report.pdf[1-3,10]; quote it in shells\n"
+                + "               that expand brackets.");
+        out.println("  --max-memory SIZE  Cap PDFBox stream buffers per merge (e.g. 512m, 2g); parsed objects still\n"
+                + "                     live on the heap. Buffers beyond the budget spill to scratch files.");
+        out.println("  --scratch-dir DIR  Directory for scratch files (default: java.io.tmpdir).");
+        out.println("  --streaming        Open each input just before it is appended and close it right after,\n"
+                + "                     keeping open file handles constant for very large inputs.");
+        out.println("  --mmap             Read inputs through memory mappings instead of buffers on the heap.");
+        out.println("  --prefetch K       Open and parse the next K inputs in the background while one is appended.");
+        out.println("  --max-output-bytes SIZE, --max-output-pages N\n"
+                + "                     Split the output into OUTPUT-001.pdf, OUTPUT-002.pdf, ... of at most SIZE\n"
+                + "                     bytes (e.g. 200m) or N pages each, built concurrently; inputs are cut at\n"
+                + "                     page boundaries where the page limit falls inside them.");
+        out.println("  --parallelism N    Same as --prefetch N for a single output; with --max-output-bytes or\n"
+                + "                     --max-output-pages, build up to N parts at once (default: one per processor).");
+        out.println("  --scan-threads N   Directories read at once while scanning (default: "
+                + InputScanner.DEFAULT_SCAN_THREADS + "; 1 walks sequentially).");
+        out.println("  --index-dir DIR    Keep a scan index per input directory in DIR; unchanged directories are not\n"
+                + "                     read again on the next run.");
+        out.println("  --fsync POLICY     When the output is forced to storage: 'none' (default), 'end' (the file\n"
+                + "                     once written) or 'dir' (the file, then its directory).");
+        out.println("  --dedup            Write identical fonts, images and ICC profiles only once.");
+        out.println("  --bookmarks LAYOUT Add a bookmark per input named after the file: 'files' (a flat list) or\n"
+                + "                     'tree' (nested in bookmarks for their directories).");
+        out.println("  --profile PROFILE  What is merged: 'full' (default), 'optimized-resources' (full, and --dedup)\n"
+                + "                     or 'pages-only' (no outlines, forms, structure tree, names or page labels).");
+        out.println("  --compact          Flate-compress streams that are stored without a filter.");
+        out.println("  --pass-through     Copy a single input's bytes unchanged instead of re-serializing it.");
+        out.println("  --watch            Keep running; re-merge the single input directory when its PDFs change.");
+        out.println("  --debounce MS      With --watch, merge once no change has arrived for MS ms (default: "
+                + DirectoryWatcher.DEFAULT_QUIET_MILLIS + ").");
+        out.println("  --incremental      Append inputs that sort after those of the last run as an incremental\n"
+                + "                     update; rebuild when earlier inputs, their order or the options changed.");
+        out.println("  --stats            Print scan/open/clone/save timings, bytes, objects and peak heap as JSON.");
+        out.println("  --detect MODE      How PDFs are recognized: 'extension' (default) or 'content',\n"
+                + "                     which checks the %PDF- header and trailer of every file regardless of name.");
+        out.println("  --jobs FILE        Run every merge listed in FILE in this JVM; FILE is .json or CSV lines of\n"
+                + "                     OUTPUT,INPUT[,INPUT...], with paths relative to FILE.");
+        out.println("  --workers N        Jobs run at once with --jobs (default: available processors).");
+        out.println("  --daemon SOCKET    Keep this JVM running and accept jobs on a Unix domain socket.");
+        out.println("  --connect SOCKET   Send the remaining arguments to a daemon instead of merging in this JVM.");
+        out.println("Examples:");
+        out.println("  java -jar MergePDF.jar -o merged.pdf a.pdf b.pdf");
+        out.println("  java -jar MergePDF.jar /path/to/dir");
+        out.println("  java -jar MergePDF.jar --max-memory 1g --scratch-dir /var/tmp -o merged.pdf /path/dir");
+        out.println("  curl -s https://example.com/cover.pdf | java -jar MergePDF.jar -o - - body.pdf > merged.pdf");
+        out.println("  java -jar MergePDF.jar --jobs customers.json --workers 8 --dedup");
+        out.println("  java -jar MergePDF.jar --daemon /tmp/mergepdf.sock &");
+        out.println("  java -jar MergePDF.jar --connect /tmp/mergepdf.sock -o merged.pdf a.pdf b.pdf");
+    }
+
+    /** Parse a byte size such as {@code 1048576}, {@code 512k}, {@code 256m} or {@code 2g}. */
+    static long parseSize(String text) {
+        String s = text.trim().toLowerCase(Locale.ROOT);
+        if (s.endsWith("b")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        long unit = 1;
+        if (!s.isEmpty()) {
+            switch (s.charAt(s.length() - 1)) {
+                case 'k' -> unit = 1L << 10;
+                case 'm' -> unit = 1L << 20;
+                case 'g' -> unit = 1L << 30;
+                case 't' -> unit = 1L << 40;
+                default -> unit = 1;
+            }
+        }
+        if (unit != 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        long value;
+        try {
+            value = Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + text, e);
+        }
+        if (value < 0) {
+            throw new IllegalArgumentException("Size must not be negative: " + text);
+        }
+        try {
+            return Math.multiplyExact(value, unit);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Size too large: " + text, e);
+        }
+    }
+
+    static List<Path> resolveInputs(List<String> inputs, MergeOptions options) throws IOException {
+        return resolveInputs(inputs, options, new MergeStats(), System.err);
+    }
+
+    static List<Path> resolveInputs(List<String> inputs, MergeOptions options, MergeStats stats, PrintStream warnings)
+            throws IOException {
+        try (MergeStats.Span span = stats.start(MergeStats.Phase.SCAN)) {
+            return new InputScanner(options, warnings).resolve(inputs);
+        }
+    }
+
+    /** Matches the files a merge to {@code outputPath} writes, so that a watched directory does not read them back. */
+    static Predicate<Path> outputFiles(Path outputPath, boolean splits) {
+        Path output = outputPath.toAbsolutePath().normalize();
+        String outputName = output.getFileName().toString();
+        return p -> {
+            Path abs = p.toAbsolutePath().normalize();
+            if (!Objects.equals(abs.getParent(), output.getParent())) {
+                return false;
+            }
+            String name = abs.getFileName().toString();
+            String target = OutputFile.targetOf(name);
+            if (target != null) {
+                name = target;
+            }
+            return name.equals(outputName) || name.startsWith(outputName + ".")
+                    || splits && OutputSplitter.isPart(output, abs.resolveSibling(name));
+        };
     }
 
     /** Merge input PDFs into the output file. */
-    private static void mergePdfs(List<Path> inputs, Path output) throws IOException {
+    static MergeResult mergePdfs(List<Path> inputs, Path output, MergeOptions options) throws IOException {
+        return mergePdfs(inputs, output, options, new MergeStats());
+    }
+
+    /** Merge input PDFs into the output file, recording each phase in {@code stats}. */
+    static MergeResult mergePdfs(List<Path> inputs, Path output, MergeOptions options, MergeStats stats)
+            throws IOException {
+        return mergePdfs(inputs, Map.of(), output, options, stats, null);
+    }
+
+    /**
+     * Merge input PDFs into the output file, taking only the pages in {@code pageRanges} from the inputs listed there
+     * and reading {@link InputScanner#STANDARD_INPUT} from {@code in}.
+     */
+    static MergeResult mergePdfs(List<Path> inputs, Map<Path, List<PageRange>> pageRanges, Path output,
+            MergeOptions options, MergeStats stats, InputStream in) throws IOException {
         Objects.requireNonNull(inputs, "inputs");
         Objects.requireNonNull(output, "output");
         Files.createDirectories(output.toAbsolutePath().getParent() == null
                 ? Paths.get(".")
                 : output.toAbsolutePath().getParent());
 
-        PDFMergerUtility merger = new PDFMergerUtility();
-        merger.setDestinationFileName(output.toString());
-
-        // Add sources as InputStreams to ensure file handles are managed
-        List<InputStream> streams = new ArrayList<>();
-        try {
-            for (Path in : inputs) {
-                InputStream is = Files.newInputStream(in);
-                streams.add(is);
-                merger.addSource(is);
-            }
-            merger.mergeDocuments(null);
-        } finally {
-            // Close all streams
-            for (InputStream is : streams) {
-                try {
-                    if (is != null) is.close();
-                } catch (IOException ignore) {
-                    // best-effort close
-                }
-            }
-        }
+        return options.splitsOutput()
+                ? new OutputSplitter(options, stats, pageRanges).merge(inputs, output)
+                : new PdfMerger(options, stats, in, pageRanges).merge(inputs, output);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,155 @@
+package jp.goodenough;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.pdfbox.io.RandomAccessRead;
+
+/**
+ * A PDF source read through a read-only memory mapping instead of a heap buffer.
+ *
+ * <p>{@code PDDocument.load(File)} reads through {@code RandomAccessBufferedFileInputStream}. That class keeps up to
+ * 4 MiB of 4 KiB pages per open document on the heap, and issues a read call for every page it misses. With a
+ * mapping, the bytes stay in the operating system's page cache, and the parser and the page copy only touch what they
+ * need. A file is mapped in chunks of 1 GiB, since a single buffer cannot exceed 2 GiB.
+ *
+ * <p>Java has no way to unmap a buffer explicitly; the mapping is released when the buffers are garbage collected after
+ * {@link #close()}. The file must not be truncated while it is mapped.
+ */
+final class MappedRandomAccessRead implements RandomAccessRead {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final long length;
+    private MappedByteBuffer[] chunks;
+    private long position;
+
+    MappedRandomAccessRead(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            length = channel.size();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkOpen();
+        if (position >= length) {
+            return -1;
+        }
+        int b = chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK)) & 0xff;
+        position++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int len) throws IOException {
+        checkOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        int n = (int) Math.min(len, length - position);
+        int done = 0;
+        while (done < n) {
+            // A read may cross a chunk boundary
+            MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+            int index = (int) (position & CHUNK_MASK);
+            int count = Math.min(n - done, chunk.limit() - index);
+            chunk.get(index, b, offset + done, count);
+            done += count;
+            position += count;
+        }
+        return n;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        checkOpen();
+        if (position < 0) {
+            throw new IOException("Invalid position " + position);
+        }
+        this.position = position;
+    }
+
+    @Override
+    public long length() throws IOException {
+        checkOpen();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return chunks == null;
+    }
+
+    @Override
+    public int peek() throws IOException {
+        int b = read();
+        if (b != -1) {
+            position--;
+        }
+        return b;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException {
+        seek(position - bytes);
+    }
+
+    @Override
+    public byte[] readFully(int len) throws IOException {
+        checkOpen();
+        if (length - position < len) {
+            throw new EOFException("Premature end of file");
+        }
+        byte[] bytes = new byte[len];
+        read(bytes, 0, len);
+        return bytes;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        checkOpen();
+        return position >= length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        checkOpen();
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, length - position));
+    }
+
+    @Override
+    public void close() {
+        chunks = null;
+    }
+
+    private void checkOpen() throws IOException {
+        if (chunks == null) {
+            throw new IOException("Source already closed");
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package jp.goodenough;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs {@link Main#run} for clients connecting over a Unix domain socket, so repeated merges share one warm JVM.
+ *
+ * <p>A client sends its working directory and its arguments. The daemon runs them with a {@link Main} bound to that
+ * directory and streams the client's stdout and stderr back as frames, followed by the exit code. Each connection is
+ * served on its own virtual thread. The socket file is made accessible to its owner only, because a client can make
+ * the daemon read and write any file the daemon can. It is bound inside a new directory that only the owner can enter
+ * and moved to its path once its permissions are set, so no other user can connect in between.
+ *
+ * <p>Wire format, all big-endian: the request is the working directory as modified UTF-8, an {@code int} argument
+ * count and each argument as modified UTF-8. Each response frame is a tag byte; {@link #STDOUT} and {@link #STDERR}
+ * frames carry an {@code int} length and that many bytes, and {@link #EXIT} carries the {@code int} exit code and ends
+ * the response.
+ */
+final class MergeDaemon implements Closeable {
+
+    static final int EXIT = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final PrintStream log;
+
+    private MergeDaemon(Path socket, ServerSocketChannel server, PrintStream log) {
+        this.socket = socket;
+        this.server = server;
+        this.log = log;
+    }
+
+    /** Listen on {@code socket}, replacing a stale socket file left by a daemon that did not shut down cleanly. */
+    static MergeDaemon bind(Path socket, PrintStream log) throws IOException {
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            if (!Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+                throw new IOException("Not a socket: " + socket);
+            }
+            if (isListening(socket)) {
+                throw new IOException("A daemon is already listening on " + socket);
+            }
+            Files.delete(socket);
+        }
+        Path parent = socket.toAbsolutePath().getParent();
+        Path directory = privateDirectory(parent);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        Path bound = directory.resolve("socket");
+        try {
+            try {
+                server.bind(UnixDomainSocketAddress.of(bound));
+                try {
+                    Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+                } catch (UnsupportedOperationException ignore) {
+                    // Not a POSIX file system; the socket keeps the permissions given by the umask
+                }
+                // A socket stays bound to its file when the file is renamed
+                Files.move(bound, socket, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(bound);
+                Files.delete(directory);
+            }
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return new MergeDaemon(socket, server, log);
+    }
+
+    /** A new directory in {@code parent} that only its owner can enter, where possible. */
+    private static Path privateDirectory(Path parent) throws IOException {
+        FileAttribute<?> ownerOnly =
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+        try {
+            return Files.createTempDirectory(parent, ".mergepdf-", ownerOnly);
+        } catch (UnsupportedOperationException e) {
+            return Files.createTempDirectory(parent, ".mergepdf-");
+        }
+    }
+
+    private static boolean isListening(Path socket) {
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Accept clients until {@link #close()} is called. */
+    void serve() throws IOException {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (AsynchronousCloseException e) {
+                    return;
+                }
+                executor.submit(() -> handle(client));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            server.close();
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+                DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)))) {
+            Path workingDir;
+            try {
+                workingDir = Paths.get(in.readUTF());
+            } catch (EOFException e) {
+                // Connected and left without a request, as the liveness probe in bind() does
+                return;
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Negative argument count: " + count);
+            }
+            List<String> args = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                args.add(in.readUTF());
+            }
+            PrintStream stdout = new PrintStream(new FrameOutputStream(out, STDOUT), true, StandardCharsets.UTF_8);
+            PrintStream stderr = new PrintStream(new FrameOutputStream(out, STDERR), true, StandardCharsets.UTF_8);
+            int exit;
+            if (args.contains("--daemon") || args.contains("--connect") || args.contains("--watch")) {
+                // --watch would never return, and would hold the client and a daemon thread for good
+                stderr.println("Error: --daemon, --connect and --watch cannot be sent to a daemon.");
+                exit = 2;
+            } else {
+                try {
+                    exit = new Main(stdout, stderr, workingDir).run(args.toArray(new String[0]));
+                } catch (RuntimeException e) {
+                    // Keep serving other clients; the CLI would have died with this exception
+                    stderr.println("Failed to merge PDFs: " + e);
+                    exit = 6;
+                }
+            }
+            stdout.flush();
+            stderr.flush();
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(exit);
+                out.flush();
+            }
+        } catch (IOException e) {
+            log.println("Warning: Request failed: " + e.getMessage());
+        }
+    }
+
+    /** Send {@code args} to the daemon on {@code socket}, relay its output and return its exit code. */
+    static int forward(Path socket, Path workingDir, List<String> args, PrintStream stdout, PrintStream stderr)
+            throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeUTF(workingDir.toAbsolutePath().toString());
+            out.writeInt(args.size());
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            try {
+                while (true) {
+                    int tag = in.readUnsignedByte();
+                    if (tag == EXIT) {
+                        return in.readInt();
+                    }
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    PrintStream target = tag == STDOUT ? stdout : stderr;
+                    target.write(bytes, 0, bytes.length);
+                    target.flush();
+                }
+            } catch (EOFException e) {
+                throw new IOException("Daemon closed the connection before the merge finished", e);
+            }
+        }
+    }
+
+    /** Wraps everything written to it in frames with one tag; writers of both tags share the stream. */
+    private static final class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final int tag;
+
+        FrameOutputStream(DataOutputStream out, int tag) {
+            this.out = out;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(tag);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
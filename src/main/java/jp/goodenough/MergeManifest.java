@@ -0,0 +1,168 @@
+package jp.goodenough;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The inputs and options an output was merged from, kept in a sidecar file next to the output.
+ *
+ * <p>The next {@code --incremental} run compares it with its own inputs. An input counts as unchanged when its path,
+ * size and modification time match. The output must also still have the size and modification time recorded here, so
+ * an output that was edited or replaced by something else is rebuilt instead of being appended to.
+ *
+ * <p>Format, UTF-8, one record per line: a header, {@code output SIZE MTIME PAGES}, {@code options FINGERPRINT} and
+ * {@code input SIZE MTIME PATH} for every input in merge order. Fields are separated by tabs.
+ */
+final class MergeManifest {
+
+    private static final String HEADER = "mergepdf-manifest\t1";
+
+    /** One input as it was when it was merged. */
+    record Entry(String path, long size, long modifiedMillis) {
+    }
+
+    private final long outputSize;
+    private final long outputModifiedMillis;
+    private final int pages;
+    private final String options;
+    private final List<Entry> inputs;
+
+    private MergeManifest(long outputSize, long outputModifiedMillis, int pages, String options, List<Entry> inputs) {
+        this.outputSize = outputSize;
+        this.outputModifiedMillis = outputModifiedMillis;
+        this.pages = pages;
+        this.options = options;
+        this.inputs = List.copyOf(inputs);
+    }
+
+    /** Sidecar path for {@code output}. */
+    static Path pathFor(Path output) {
+        return output.resolveSibling(output.getFileName() + ".manifest");
+    }
+
+    /** Current size and modification time of every input, in order. */
+    static List<Entry> describe(List<Path> inputs) throws IOException {
+        List<Entry> entries = new ArrayList<>(inputs.size());
+        for (Path in : inputs) {
+            BasicFileAttributes attrs = Files.readAttributes(in, BasicFileAttributes.class);
+            entries.add(new Entry(in.toAbsolutePath().normalize().toString(), attrs.size(),
+                    attrs.lastModifiedTime().toMillis()));
+        }
+        return entries;
+    }
+
+    /** Record {@code output} as it is now, merged from {@code inputs} with {@code options}. */
+    static MergeManifest of(List<Entry> inputs, Path output, int pages, MergeOptions options) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(output, BasicFileAttributes.class);
+        return new MergeManifest(attrs.size(), attrs.lastModifiedTime().toMillis(), pages, fingerprint(options),
+                inputs);
+    }
+
+    /** Options that change the bytes of the output; a different fingerprint forces a rebuild. */
+    static String fingerprint(MergeOptions options) {
+        return "dedup=" + options.deduplicate() + ",compact=" + options.compact() + ",profile=" + options.profile();
+    }
+
+    /** Read a manifest, or return {@code null} when there is none or it cannot be parsed. */
+    static MergeManifest read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            String[] output = fields(reader.readLine(), "output", 3);
+            String[] options = fields(reader.readLine(), "options", 1);
+            if (output == null || options == null) {
+                return null;
+            }
+            List<Entry> inputs = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] input = fields(line, "input", 3);
+                if (input == null) {
+                    return null;
+                }
+                inputs.add(new Entry(input[2], Long.parseLong(input[0]), Long.parseLong(input[1])));
+            }
+            return new MergeManifest(Long.parseLong(output[0]), Long.parseLong(output[1]),
+                    Integer.parseInt(output[2]), options[0], inputs);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String[] fields(String line, String tag, int count) {
+        if (line == null || !line.startsWith(tag + "\t")) {
+            return null;
+        }
+        // The last field is a path and may itself contain tabs
+        String[] fields = line.substring(tag.length() + 1).split("\t", count);
+        return fields.length == count ? fields : null;
+    }
+
+    /**
+     * Write the manifest, replacing the previous one atomically where the file system allows it. If some input path
+     * cannot be stored, the previous manifest is removed instead, so the next run rebuilds.
+     */
+    void write(Path file) throws IOException {
+        for (Entry input : inputs) {
+            if (input.path().indexOf('\n') >= 0 || input.path().indexOf('\r') >= 0) {
+                Files.deleteIfExists(file);
+                return;
+            }
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write("output\t" + outputSize + "\t" + outputModifiedMillis + "\t" + pages);
+            writer.newLine();
+            writer.write("options\t" + options);
+            writer.newLine();
+            for (Entry input : inputs) {
+                writer.write("input\t" + input.size() + "\t" + input.modifiedMillis() + "\t" + input.path());
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * How many leading entries of {@code current} are already in {@code output}, or {@code -1} if the output has to be
+     * rebuilt: the output changed, the options differ, or the recorded inputs are not an unchanged prefix.
+     */
+    int coveredPrefix(List<Entry> current, Path output, MergeOptions options) throws IOException {
+        if (!this.options.equals(fingerprint(options)) || inputs.isEmpty() || inputs.size() > current.size()) {
+            return -1;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(output, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        if (attrs.size() != outputSize || attrs.lastModifiedTime().toMillis() != outputModifiedMillis) {
+            return -1;
+        }
+        return current.subList(0, inputs.size()).equals(inputs) ? inputs.size() : -1;
+    }
+
+    /** Number of pages in the output when this manifest was written. */
+    int pages() {
+        return pages;
+    }
+}
@@ -0,0 +1,343 @@
+package jp.goodenough;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Tuning options for a merge run.
+ *
+ * <p>The defaults reproduce the original behavior: everything is buffered on the heap and no scratch files are used.
+ */
+final class MergeOptions {
+
+    /** Marker for "no memory budget"; sources and destination stay entirely on the heap. */
+    static final long UNLIMITED = -1L;
+
+    private final long maxMemoryBytes;
+    private final Path scratchDir;
+    private final boolean streaming;
+    private final int parallelism;
+    private final int scanThreads;
+    private final int prefetch;
+    private final InputScanner.Detection detection;
+    private final Path indexDir;
+    private final boolean mmap;
+    private final boolean passThrough;
+    private final boolean deduplicate;
+    private final boolean compact;
+    private final boolean incremental;
+    private final OutputFile.Fsync fsync;
+    private final PdfMerger.Profile profile;
+    private final Bookmarks.Layout bookmarks;
+    private final long maxOutputBytes;
+    private final int maxOutputPages;
+
+    private MergeOptions(Builder builder) {
+        this.maxMemoryBytes = builder.maxMemoryBytes;
+        this.scratchDir = builder.scratchDir;
+        this.streaming = builder.streaming;
+        this.parallelism = builder.parallelism;
+        this.scanThreads = builder.scanThreads;
+        this.prefetch = builder.prefetch;
+        this.detection = builder.detection;
+        this.indexDir = builder.indexDir;
+        this.mmap = builder.mmap;
+        this.passThrough = builder.passThrough;
+        this.deduplicate = builder.deduplicate;
+        this.compact = builder.compact;
+        this.incremental = builder.incremental;
+        this.fsync = builder.fsync;
+        this.profile = builder.profile;
+        this.bookmarks = builder.bookmarks;
+        this.maxOutputBytes = builder.maxOutputBytes;
+        this.maxOutputPages = builder.maxOutputPages;
+    }
+
+    static MergeOptions defaults() {
+        return builder().build();
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /** A builder that starts from these options. */
+    Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.maxMemoryBytes = maxMemoryBytes;
+        builder.scratchDir = scratchDir;
+        builder.streaming = streaming;
+        builder.parallelism = parallelism;
+        builder.scanThreads = scanThreads;
+        builder.prefetch = prefetch;
+        builder.detection = detection;
+        builder.indexDir = indexDir;
+        builder.mmap = mmap;
+        builder.passThrough = passThrough;
+        builder.deduplicate = deduplicate;
+        builder.compact = compact;
+        builder.incremental = incremental;
+        builder.fsync = fsync;
+        builder.profile = profile;
+        builder.bookmarks = bookmarks;
+        builder.maxOutputBytes = maxOutputBytes;
+        builder.maxOutputPages = maxOutputPages;
+        return builder;
+    }
+
+    /** Heap budget in bytes for one merge, or {@link #UNLIMITED}. */
+    long maxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    boolean hasMemoryBudget() {
+        return maxMemoryBytes != UNLIMITED;
+    }
+
+    /** Directory for temporary files, or {@code null} to use {@code java.io.tmpdir}. */
+    Path scratchDir() {
+        return scratchDir;
+    }
+
+    /**
+     * Whether each source is opened just before it is appended and closed right after, so that only one source is
+     * open at any time regardless of the number of inputs.
+     */
+    boolean streaming() {
+        return streaming;
+    }
+
+    /**
+     * Number of parts of a split output that are built at once; for a single output, the least number of inputs
+     * opened ahead. {@code 1} sets neither.
+     */
+    int parallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Number of inputs opened ahead of the one being appended; {@code 0} opens each one when it is needed. At least
+     * {@link #parallelism()} when that is above {@code 1}.
+     */
+    int prefetch() {
+        return parallelism > 1 ? Math.max(prefetch, parallelism) : prefetch;
+    }
+
+    /** Maximum number of directories read at once while scanning inputs. */
+    int scanThreads() {
+        return scanThreads;
+    }
+
+    /** How candidate files are recognized as PDFs while scanning inputs. */
+    InputScanner.Detection detection() {
+        return detection;
+    }
+
+    /** Directory holding a {@link ScanIndex} per input directory, or {@code null} to scan without one. */
+    Path indexDir() {
+        return indexDir;
+    }
+
+    /** Whether sources are read through a memory mapping instead of a buffer on the heap. */
+    boolean mmap() {
+        return mmap;
+    }
+
+    /** Whether a merge step with a single source may copy its bytes unchanged instead of re-serializing it. */
+    boolean passThrough() {
+        return passThrough;
+    }
+
+    /**
+     * Whether identical fonts, images and other stream resources are written only once, as asked directly or by the
+     * {@link PdfMerger.Profile#OPTIMIZED_RESOURCES} profile.
+     */
+    boolean deduplicate() {
+        return deduplicate || profile == PdfMerger.Profile.OPTIMIZED_RESOURCES;
+    }
+
+    /** Whether unfiltered streams are Flate-compressed before the output is written. */
+    boolean compact() {
+        return compact;
+    }
+
+    /**
+     * Whether new inputs that sort after those of the previous run are appended to the existing output as an
+     * incremental update, using the manifest written next to it.
+     */
+    boolean incremental() {
+        return incremental;
+    }
+
+    /** What is forced to storage once the output is written. */
+    OutputFile.Fsync fsync() {
+        return fsync;
+    }
+
+    /** How much of each source is merged besides its pages. */
+    PdfMerger.Profile profile() {
+        return profile;
+    }
+
+    /** Which outline items are generated for the inputs; see {@link Bookmarks}. */
+    Bookmarks.Layout bookmarks() {
+        return bookmarks;
+    }
+
+    /** Largest size in bytes of one output file, or {@code 0} for no limit; see {@link OutputSplitter}. */
+    long maxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    /** Largest number of pages in one output file, or {@code 0} for no limit; see {@link OutputSplitter}. */
+    int maxOutputPages() {
+        return maxOutputPages;
+    }
+
+    /** Whether the output is written as numbered parts because a size or page limit is set. */
+    boolean splitsOutput() {
+        return maxOutputBytes > 0 || maxOutputPages > 0;
+    }
+
+    /** Whether a lone source may be copied as-is; false when some option has to rewrite the document. */
+    boolean allowsPassThrough() {
+        return passThrough && !deduplicate() && !compact && profile != PdfMerger.Profile.PAGES_ONLY
+                && bookmarks == Bookmarks.Layout.NONE;
+    }
+
+    static final class Builder {
+        private long maxMemoryBytes = UNLIMITED;
+        private Path scratchDir;
+        private boolean streaming;
+        private int parallelism = 1;
+        private int scanThreads = InputScanner.DEFAULT_SCAN_THREADS;
+        private int prefetch;
+        private InputScanner.Detection detection = InputScanner.Detection.EXTENSION;
+        private Path indexDir;
+        private boolean mmap;
+        private boolean passThrough;
+        private boolean deduplicate;
+        private boolean compact;
+        private boolean incremental;
+        private OutputFile.Fsync fsync = OutputFile.Fsync.NONE;
+        private PdfMerger.Profile profile = PdfMerger.Profile.FULL;
+        private Bookmarks.Layout bookmarks = Bookmarks.Layout.NONE;
+        private long maxOutputBytes;
+        private int maxOutputPages;
+
+        private Builder() {
+        }
+
+        Builder maxMemoryBytes(long maxMemoryBytes) {
+            if (maxMemoryBytes < 0 && maxMemoryBytes != UNLIMITED) {
+                throw new IllegalArgumentException("maxMemoryBytes must be >= 0: " + maxMemoryBytes);
+            }
+            this.maxMemoryBytes = maxMemoryBytes;
+            return this;
+        }
+
+        Builder scratchDir(Path scratchDir) {
+            this.scratchDir = scratchDir;
+            return this;
+        }
+
+        Builder streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be >= 1: " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        Builder scanThreads(int scanThreads) {
+            if (scanThreads < 1) {
+                throw new IllegalArgumentException("scanThreads must be >= 1: " + scanThreads);
+            }
+            this.scanThreads = scanThreads;
+            return this;
+        }
+
+        Builder prefetch(int prefetch) {
+            if (prefetch < 0) {
+                throw new IllegalArgumentException("prefetch must be >= 0: " + prefetch);
+            }
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        Builder detection(InputScanner.Detection detection) {
+            this.detection = Objects.requireNonNull(detection, "detection");
+            return this;
+        }
+
+        Builder indexDir(Path indexDir) {
+            this.indexDir = indexDir;
+            return this;
+        }
+
+        Builder mmap(boolean mmap) {
+            this.mmap = mmap;
+            return this;
+        }
+
+        Builder passThrough(boolean passThrough) {
+            this.passThrough = passThrough;
+            return this;
+        }
+
+        Builder deduplicate(boolean deduplicate) {
+            this.deduplicate = deduplicate;
+            return this;
+        }
+
+        Builder compact(boolean compact) {
+            this.compact = compact;
+            return this;
+        }
+
+        Builder incremental(boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        Builder fsync(OutputFile.Fsync fsync) {
+            this.fsync = Objects.requireNonNull(fsync, "fsync");
+            return this;
+        }
+
+        Builder profile(PdfMerger.Profile profile) {
+            this.profile = Objects.requireNonNull(profile, "profile");
+            return this;
+        }
+
+        Builder bookmarks(Bookmarks.Layout bookmarks) {
+            this.bookmarks = Objects.requireNonNull(bookmarks, "bookmarks");
+            return this;
+        }
+
+        Builder maxOutputBytes(long maxOutputBytes) {
+            if (maxOutputBytes < 0) {
+                throw new IllegalArgumentException("maxOutputBytes must be >= 0: " + maxOutputBytes);
+            }
+            this.maxOutputBytes = maxOutputBytes;
+            return this;
+        }
+
+        Builder maxOutputPages(int maxOutputPages) {
+            if (maxOutputPages < 0) {
+                throw new IllegalArgumentException("maxOutputPages must be >= 0: " + maxOutputPages);
+            }
+            this.maxOutputPages = maxOutputPages;
+            return this;
+        }
+
+        MergeOptions build() {
+            return new MergeOptions(this);
+        }
+    }
+}
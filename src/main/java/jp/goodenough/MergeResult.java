@@ -0,0 +1,38 @@
+package jp.goodenough;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Outcome of a merge run.
+ *
+ * @param documents number of source documents merged in this run
+ * @param pages number of pages in the output
+ * @param spilledBytes peak number of bytes held in scratch files instead of the heap
+ * @param update how the output was produced
+ * @param parts the numbered files the output was split into, in order; empty when it is a single file
+ */
+record MergeResult(int documents, int pages, long spilledBytes, Update update, List<Path> parts) {
+
+    /** How a run produced its output. */
+    enum Update {
+        /** Written from scratch. */
+        REBUILT,
+        /** New inputs were appended to the previous output as an incremental update. */
+        APPENDED,
+        /** The previous output already covers every input; nothing was written. */
+        UNCHANGED
+    }
+
+    MergeResult {
+        parts = List.copyOf(parts);
+    }
+
+    MergeResult(int documents, int pages, long spilledBytes) {
+        this(documents, pages, spilledBytes, Update.REBUILT);
+    }
+
+    MergeResult(int documents, int pages, long spilledBytes, Update update) {
+        this(documents, pages, spilledBytes, update, List.of());
+    }
+}
@@ -0,0 +1,251 @@
+package jp.goodenough;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Per-phase timing and resource counters for one run, reported by {@code --stats}.
+ *
+ * <p>Phase times are summed over every thread that worked in the phase, so with a parallel merge they can exceed the
+ * wall time of the whole run. CPU time is the CPU time of the thread that ran the span. Virtual threads have no CPU
+ * clock, so a phase with a span on one, such as a merge served by a {@link MergeDaemon}, reports its CPU time as
+ * unavailable. The scan runs on virtual threads of the {@link InputScanner}, so its CPU time is the change in the
+ * process CPU time over the span instead; under {@code --jobs} that includes the other merges running meanwhile.
+ * PDFBox parses every object reachable from the catalog when a document is opened, so "open" is the parse; stream data
+ * is only read when it is copied, which counts under "clone" or "save".
+ *
+ * <p>The JVM cannot tell which merge a heap object belongs to, so the peak heap is the largest process-wide heap use
+ * while this run is reported on: the heap pools' use just before each garbage collection, when it is at its highest,
+ * and the use whenever a span starts or ends. With several merges in one JVM, it includes their objects too.
+ */
+final class MergeStats {
+
+    /** Phases of a run, in the order they happen. */
+    enum Phase {
+        SCAN, OPEN, CLONE, SAVE;
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final Set<String> HEAP_POOLS = heapPools();
+    /** Runs whose peak heap the collections feed; a run drops out once nothing refers to it. */
+    private static final Set<MergeStats> RUNS = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        listenToCollections();
+    }
+
+    private final LongAdder[] wallNanos = adders();
+    private final LongAdder[] cpuNanos = adders();
+    private final LongAdder[] spans = adders();
+    private final AtomicBoolean[] cpuUnavailable = flags();
+    private final LongAccumulator peakHeapBytes = new LongAccumulator(Math::max, 0);
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder objectsWritten = new LongAdder();
+    private final long startNanos;
+
+    MergeStats() {
+        this.startNanos = System.nanoTime();
+        sampleHeap();
+        RUNS.add(this);
+    }
+
+    private static Set<String> heapPools() {
+        Set<String> pools = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool.getName());
+            }
+        }
+        return pools;
+    }
+
+    /** Feed the heap use before each collection to every run; JVMs without the notifications only sample spans. */
+    private static void listenToCollections() {
+        NotificationListener listener = (notification, handback) -> {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            Map<String, MemoryUsage> before = GarbageCollectionNotificationInfo
+                    .from((CompositeData) notification.getUserData()).getGcInfo().getMemoryUsageBeforeGc();
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> pool : before.entrySet()) {
+                if (HEAP_POOLS.contains(pool.getKey())) {
+                    used += pool.getValue().getUsed();
+                }
+            }
+            synchronized (RUNS) {
+                for (MergeStats stats : RUNS) {
+                    stats.peakHeapBytes.accumulate(used);
+                }
+            }
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(listener, null, null);
+            }
+        }
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[Phase.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static AtomicBoolean[] flags() {
+        AtomicBoolean[] flags = new AtomicBoolean[Phase.values().length];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = new AtomicBoolean();
+        }
+        return flags;
+    }
+
+    /** Time a span of work on the current thread. */
+    Span start(Phase phase) {
+        return new Span(phase);
+    }
+
+    void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    void addObjectsWritten(long objects) {
+        objectsWritten.add(objects);
+    }
+
+    long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    long bytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    long objectsWritten() {
+        return objectsWritten.sum();
+    }
+
+    long wallNanos(Phase phase) {
+        return wallNanos[phase.ordinal()].sum();
+    }
+
+    /** CPU time of the phase, or {@code -1} when some span of it ran where no CPU clock is available. */
+    long cpuNanos(Phase phase) {
+        return cpuUnavailable[phase.ordinal()].get() ? -1 : cpuNanos[phase.ordinal()].sum();
+    }
+
+    /** Largest process-wide heap use seen since this run started. */
+    long peakHeapBytes() {
+        sampleHeap();
+        return peakHeapBytes.get();
+    }
+
+    private void sampleHeap() {
+        peakHeapBytes.accumulate(MEMORY.getHeapMemoryUsage().getUsed());
+    }
+
+    /** Render the report as a single-line JSON object. */
+    String toJson(MergeResult result) {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append('{');
+        sb.append("\"documents\":").append(result.documents());
+        sb.append(",\"pages\":").append(result.pages());
+        sb.append(",\"objectsWritten\":").append(objectsWritten());
+        sb.append(",\"bytesRead\":").append(bytesRead());
+        sb.append(",\"bytesWritten\":").append(bytesWritten());
+        sb.append(",\"spilledBytes\":").append(result.spilledBytes());
+        sb.append(",\"peakProcessHeapBytes\":").append(peakHeapBytes());
+        sb.append(",\"wallNanos\":").append(System.nanoTime() - startNanos);
+        sb.append(",\"phases\":{");
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(phase.key()).append("\":{");
+            sb.append("\"count\":").append(spans[phase.ordinal()].sum());
+            sb.append(",\"wallNanos\":").append(wallNanos(phase));
+            long cpu = cpuNanos(phase);
+            sb.append(",\"cpuNanos\":").append(cpu < 0 ? "null" : Long.toString(cpu));
+            sb.append('}');
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    /** CPU time of the current thread, or {@code -1} when it has none, as for virtual threads. */
+    private static long cpuClock() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    /** CPU time of the whole process, or {@code -1} when the JVM does not report it. */
+    private static long processCpuClock() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /** One timed span of a phase; close it in try-with-resources. */
+    final class Span implements AutoCloseable {
+
+        private final Phase phase;
+        private final long wallStart;
+        private final long cpuStart;
+
+        private Span(Phase phase) {
+            this.phase = phase;
+            this.wallStart = System.nanoTime();
+            // The scan itself runs on virtual threads, so the calling thread's clock would miss it
+            this.cpuStart = phase == Phase.SCAN ? processCpuClock() : cpuClock();
+            sampleHeap();
+        }
+
+        @Override
+        public void close() {
+            int i = phase.ordinal();
+            wallNanos[i].add(System.nanoTime() - wallStart);
+            long cpuEnd = cpuStart < 0 ? -1 : phase == Phase.SCAN ? processCpuClock() : cpuClock();
+            if (cpuEnd < 0) {
+                cpuUnavailable[i].set(true);
+            } else {
+                cpuNanos[i].add(cpuEnd - cpuStart);
+            }
+            spans[i].increment();
+            sampleHeap();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a file through a {@link FileChannel} with a large buffer, and makes it durable as the {@link Fsync} policy
+ * asks when it is closed.
+ *
+ * <p>{@code COSWriter} issues many small writes: tokens, numbers and line breaks. A {@code BufferedOutputStream}
+ * turns those into a write call every 8 KiB, and this class into one every {@link #BUFFER_SIZE} bytes. The buffers are
+ * direct, so the channel does not copy them again, and they are returned to a small pool when the file is closed, so
+ * a run that writes many outputs does not allocate a buffer for each of them.
+ *
+ * <p>A {@linkplain #create created} file is written under a temporary name in the same directory and renamed over its
+ * target when it is closed, so a run that fails or crashes halfway leaves the previous output as it was.
+ */
+final class OutputFile extends OutputStream {
+
+    /** What is forced to storage when an output is closed. */
+    enum Fsync {
+        /** Nothing; the operating system writes the file back whenever it chooses. */
+        NONE,
+        /** The file's data and metadata; after a crash, a created file is either the old or the new output. */
+        END,
+        /** The file, then the directory that holds it, so that the rename of a created file also survives a crash. */
+        DIRECTORY
+    }
+
+    static final int BUFFER_SIZE = 1 << 20;
+
+    /** Idle buffers kept for reuse; more than one per processor would only be reused by bursts of jobs. */
+    private static final int MAX_POOLED = Runtime.getRuntime().availableProcessors();
+    private static final Queue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private final Path file;
+    /** Where a created file is written until it is closed; {@code null} when appending in place. */
+    private final Path temporary;
+    private final FileChannel channel;
+    /** Length of the file before anything was appended; what {@link #discard()} cuts it back to. */
+    private final long start;
+    private final Fsync fsync;
+    private ByteBuffer buffer;
+
+    private OutputFile(Path file, Path temporary, FileChannel channel, Fsync fsync) throws IOException {
+        this.file = file;
+        this.temporary = temporary;
+        this.channel = channel;
+        this.start = channel.size();
+        this.fsync = fsync;
+        ByteBuffer pooled = BUFFERS.poll();
+        this.buffer = pooled != null ? pooled : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /** Name of the file that the temporary file {@code name} of {@link #create} replaces, or {@code null}. */
+    static String targetOf(String name) {
+        if (!name.startsWith(".") || !name.endsWith(".tmp")) {
+            return null;
+        }
+        int random = name.lastIndexOf('.', name.length() - ".tmp".length() - 1);
+        return random > 1 ? name.substring(1, random) : null;
+    }
+
+    /** Write a new {@code file}, which replaces the existing one, if any, only when this is closed. */
+    static OutputFile create(Path file, Fsync fsync) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        while (true) {
+            // Not Files.createTempFile, which would leave the output readable by its owner only
+            Path temporary = directory.resolve("." + file.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                return new OutputFile(file, temporary,
+                        FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW), fsync);
+            } catch (FileAlreadyExistsException e) {
+                // Taken by another writer; draw another name
+            }
+        }
+    }
+
+    /** Open the existing {@code file} to write at its end, in place. */
+    static OutputFile append(Path file, Fsync fsync) throws IOException {
+        return new OutputFile(file, null, FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND),
+                fsync);
+    }
+
+    /** The channel, for bulk transfers; {@link #flush()} before using it after writing to this stream. */
+    FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+    }
+
+    /** Complete the output: a created file replaces its target, and the {@link Fsync} policy is applied. */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            drain();
+            if (fsync != Fsync.NONE) {
+                channel.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            discard(e);
+            throw e;
+        }
+        release();
+        try {
+            channel.close();
+            if (temporary != null) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteTemporary();
+            throw e;
+        }
+        if (fsync == Fsync.DIRECTORY) {
+            forceDirectory(file.toAbsolutePath().getParent());
+        }
+    }
+
+    /**
+     * Give up the output without completing it. A created file is deleted and its target left as it was; a file
+     * appended to is cut back to its length before, and forced to storage as the {@link Fsync} policy asks. Closing
+     * afterwards does nothing.
+     */
+    void discard() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        release();
+        try (channel) {
+            if (temporary == null) {
+                channel.truncate(start);
+                if (fsync != Fsync.NONE) {
+                    channel.force(true);
+                }
+            }
+        } finally {
+            deleteTemporary();
+        }
+    }
+
+    /** {@link #discard()} on the way out of {@code failure}, to which an error doing so is added. */
+    void discard(Throwable failure) {
+        try {
+            discard();
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void release() {
+        buffer.clear();
+        if (BUFFERS.size() < MAX_POOLED) {
+            BUFFERS.add(buffer);
+        }
+        buffer = null;
+    }
+
+    private void deleteTemporary() {
+        if (temporary == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException ignore) {
+            // Best effort; the error that got us here is more useful
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Force the entries of {@code dir} to storage, where the platform allows opening a directory. */
+    static void forceDirectory(Path dir) throws IOException {
+        FileChannel handle;
+        try {
+            handle = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Some platforms, Windows among them, cannot open a directory; syncing the file is all they allow
+            return;
+        }
+        try (handle) {
+            handle.force(true);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a merge as numbered parts, {@code NAME-001.pdf}, {@code NAME-002.pdf} and so on, each within {@link
+ * MergeOptions#maxOutputPages()} and {@link MergeOptions#maxOutputBytes()}.
+ *
+ * <p>The sorted inputs are cut into parts at input boundaries, and inside an input where the page limit falls. With a
+ * page limit, every input is opened once beforehand to count its pages. Byte sizes are planned from the sizes of the
+ * input files, since the size of a part is only known once it is written; a part that still comes out too large is
+ * split in half and written again. A single page that is larger than the limit is an error. An input with a page
+ * selection counts as the pages it selects.
+ *
+ * <p>Parts are independent merges, built concurrently on {@link MergeOptions#parallelism()} threads, or on one thread
+ * per processor when that is {@code 1}. Each thread gets an equal share of the memory budget. Parts are written to
+ * temporary files next to the output and only renamed once all of them are done, so a run that fails while merging
+ * leaves the parts of an earlier run as they were. Parts of an earlier run numbered beyond the new last part are
+ * deleted.
+ */
+final class OutputSplitter {
+
+    /** The pages of one input that go into one part; {@code pages} is {@code null} for all of them. */
+    private record Segment(Path source, List<PageRange> pages) {
+    }
+
+    /** A part written to a temporary file. */
+    private record Written(Path file, MergeResult result) {
+    }
+
+    private static final AtomicInteger TEMP_COUNTER = new AtomicInteger();
+
+    private final MergeOptions options;
+    private final MergeStats stats;
+    private final Map<Path, List<PageRange>> selections;
+
+    OutputSplitter(MergeOptions options, MergeStats stats) {
+        this(options, stats, Map.of());
+    }
+
+    /** A splitter that merges only the pages selected in {@code selections} from the inputs listed there. */
+    OutputSplitter(MergeOptions options, MergeStats stats, Map<Path, List<PageRange>> selections) {
+        this.options = Objects.requireNonNull(options, "options");
+        this.stats = Objects.requireNonNull(stats, "stats");
+        this.selections = Map.copyOf(selections);
+        if (!options.splitsOutput()) {
+            throw new IllegalArgumentException("Neither an output size nor an output page limit is set");
+        }
+    }
+
+    MergeResult merge(List<Path> inputs, Path output) throws IOException {
+        Objects.requireNonNull(inputs, "inputs");
+        Objects.requireNonNull(output, "output");
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No inputs to merge");
+        }
+        int threads = options.parallelism() > 1 ? options.parallelism() : Runtime.getRuntime().availableProcessors();
+        MergeOptions partOptions = partOptions(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Written> written = new ArrayList<>();
+        try {
+            int[] pages = options.maxOutputPages() > 0 ? countPages(inputs, partOptions, executor) : null;
+            List<Future<List<Written>>> parts = new ArrayList<>();
+            for (List<Segment> part : plan(inputs, pages)) {
+                parts.add(executor.submit(() -> build(part, output, partOptions)));
+            }
+            IOException failure = null;
+            for (Future<List<Written>> part : parts) {
+                try {
+                    written.addAll(await(part));
+                } catch (IOException e) {
+                    // Keep waiting, so that no part is still being written when the others are deleted
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return publish(written, output, inputs.size());
+        } catch (IOException | RuntimeException e) {
+            delete(written);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** The file of part {@code number} of {@code output}; part 1 of {@code report.pdf} is {@code report-001.pdf}. */
+    static Path partPath(Path output, int number) {
+        String name = output.getFileName().toString();
+        int extension = extensionStart(name);
+        return output.resolveSibling(name.substring(0, extension) + String.format(Locale.ROOT, "-%03d", number)
+                + name.substring(extension));
+    }
+
+    /** Whether {@code file} is named like a part of {@code output}; directories are not compared. */
+    static boolean isPart(Path output, Path file) {
+        String name = output.getFileName().toString();
+        int extension = extensionStart(name);
+        String prefix = name.substring(0, extension) + "-";
+        String suffix = name.substring(extension);
+        String candidate = file.getFileName().toString();
+        if (candidate.length() < prefix.length() + 3 + suffix.length()
+                || !candidate.startsWith(prefix) || !candidate.endsWith(suffix)) {
+            return false;
+        }
+        return candidate.substring(prefix.length(), candidate.length() - suffix.length()).chars()
+                .allMatch(c -> c >= '0' && c <= '9');
+    }
+
+    private static int extensionStart(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".pdf") ? name.length() - 4 : name.length();
+    }
+
+    /** Options for one part: merged on a single thread, with its share of the memory budget. */
+    private MergeOptions partOptions(int threads) {
+        MergeOptions.Builder builder = options.toBuilder().parallelism(1).maxOutputBytes(0).maxOutputPages(0);
+        if (options.hasMemoryBudget()) {
+            builder.maxMemoryBytes(options.maxMemoryBytes() / threads);
+        }
+        return builder.build();
+    }
+
+    private int[] countPages(List<Path> inputs, MergeOptions partOptions, ExecutorService executor)
+            throws IOException {
+        List<Future<Integer>> counts = new ArrayList<>(inputs.size());
+        for (Path input : inputs) {
+            List<PageRange> selection = selections.get(input);
+            counts.add(selection != null
+                    ? CompletableFuture.completedFuture(PageRange.count(selection))
+                    : executor.submit(() -> new PdfMerger(partOptions, stats).pageCount(input)));
+        }
+        int[] pages = new int[inputs.size()];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = await(counts.get(i));
+        }
+        return pages;
+    }
+
+    /**
+     * Cut the inputs into parts in order. {@code pages} holds the page count of every input, or is {@code null} when
+     * there is no page limit; inputs are then only cut at their boundaries.
+     */
+    private List<List<Segment>> plan(List<Path> inputs, int[] pages) throws IOException {
+        long maxBytes = options.maxOutputBytes();
+        int maxPages = options.maxOutputPages();
+        List<List<Segment>> parts = new ArrayList<>();
+        List<Segment> current = new ArrayList<>();
+        long currentBytes = 0;
+        int currentPages = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            Path source = inputs.get(i);
+            List<PageRange> selection = selections.get(source);
+            long size = Files.size(source);
+            int total = pages != null ? pages[i] : selection != null ? PageRange.count(selection) : 0;
+            int first = 1;
+            while (true) {
+                if (maxPages > 0 && currentPages == maxPages) {
+                    parts.add(current);
+                    current = new ArrayList<>();
+                    currentBytes = 0;
+                    currentPages = 0;
+                }
+                int take = maxPages > 0 ? Math.min(total - first + 1, maxPages - currentPages) : total - first + 1;
+                long bytes = total == 0 ? size : size * take / total;
+                Segment segment = new Segment(source, take == total
+                        ? selection
+                        : PageRange.slice(selection != null ? selection : List.of(new PageRange(1, total)), first - 1,
+                                take));
+                if (!current.isEmpty()
+                        && ((maxBytes > 0 && currentBytes + bytes > maxBytes) || conflicts(current, segment))) {
+                    parts.add(current);
+                    current = new ArrayList<>();
+                    currentBytes = 0;
+                    currentPages = 0;
+                    continue;
+                }
+                current.add(segment);
+                currentBytes += bytes;
+                currentPages += take;
+                first += take;
+                if (first > total) {
+                    break;
+                }
+            }
+        }
+        parts.add(current);
+        return parts;
+    }
+
+    /** Page selections are looked up by path, so a part cannot hold an input twice if either time selects pages. */
+    private static boolean conflicts(List<Segment> part, Segment segment) {
+        for (Segment other : part) {
+            if (other.source().equals(segment.source()) && (other.pages() != null || segment.pages() != null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Write one planned part, splitting it further while it comes out larger than the byte limit. */
+    private List<Written> build(List<Segment> segments, Path output, MergeOptions partOptions) throws IOException {
+        List<Path> inputs = new ArrayList<>(segments.size());
+        Map<Path, List<PageRange>> ranges = new HashMap<>();
+        for (Segment segment : segments) {
+            inputs.add(segment.source());
+            if (segment.pages() != null) {
+                ranges.put(segment.source(), segment.pages());
+            }
+        }
+        // Named after the output, so that --watch ignores it like the output's other sidecar files
+        Path file = output.resolveSibling(output.getFileName() + "." + ProcessHandle.current().pid() + "-"
+                + TEMP_COUNTER.incrementAndGet() + ".part");
+        MergeResult result;
+        try {
+            result = new PdfMerger(partOptions, stats, null, ranges).merge(inputs, file);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        if (options.maxOutputBytes() == 0 || Files.size(file) <= options.maxOutputBytes()) {
+            return List.of(new Written(file, result));
+        }
+        Files.delete(file);
+        List<List<Segment>> halves = halve(segments, result.pages());
+        if (halves == null) {
+            Segment only = segments.get(0);
+            throw new IOException((only.pages() == null ? "" : "Page " + only.pages().get(0) + " of ") + only.source()
+                    + " alone is larger than the output size limit of " + options.maxOutputBytes() + " bytes");
+        }
+        List<Written> written = new ArrayList<>(build(halves.get(0), output, partOptions));
+        try {
+            written.addAll(build(halves.get(1), output, partOptions));
+        } catch (IOException | RuntimeException e) {
+            delete(written);
+            throw e;
+        }
+        return written;
+    }
+
+    /** Split a part between its segments, or a lone segment between its pages; {@code null} if it is one page. */
+    private static List<List<Segment>> halve(List<Segment> segments, int pages) {
+        if (segments.size() > 1) {
+            int mid = segments.size() / 2;
+            return List.of(segments.subList(0, mid), segments.subList(mid, segments.size()));
+        }
+        Segment only = segments.get(0);
+        if (only.pages() == null && pages < 2) {
+            return null;
+        }
+        List<PageRange> selected = only.pages() != null ? only.pages() : List.of(new PageRange(1, pages));
+        int count = PageRange.count(selected);
+        if (count < 2) {
+            return null;
+        }
+        return List.of(List.of(new Segment(only.source(), PageRange.slice(selected, 0, count / 2))),
+                List.of(new Segment(only.source(), PageRange.slice(selected, count / 2, count - count / 2))));
+    }
+
+    /**
+     * Rename the written parts to their numbered names and delete left-over parts of an earlier run.
+     *
+     * <p>The parts are renamed one at a time, and nothing is rolled back: when a rename fails, the parts before it are
+     * already the new ones, the rest are still those of the earlier run, and the unrenamed temporary files are
+     * deleted. Each part on its own is always complete.
+     */
+    private MergeResult publish(List<Written> written, Path output, int documents) throws IOException {
+        List<Path> parts = new ArrayList<>(written.size());
+        int pages = 0;
+        long spilledBytes = 0;
+        for (Written part : written) {
+            Path target = partPath(output, parts.size() + 1);
+            Files.move(part.file(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            parts.add(target);
+            pages += part.result().pages();
+            spilledBytes = Math.max(spilledBytes, part.result().spilledBytes());
+        }
+        int stale = parts.size() + 1;
+        while (Files.deleteIfExists(partPath(output, stale))) {
+            stale++;
+        }
+        if (options.fsync() == OutputFile.Fsync.DIRECTORY) {
+            // The parts were synced under their temporary names; the renames are only durable once this is too
+            OutputFile.forceDirectory(output.toAbsolutePath().getParent());
+        }
+        return new MergeResult(documents, pages, spilledBytes, MergeResult.Update.REBUILT, parts);
+    }
+
+    private static void delete(List<Written> written) {
+        for (Written part : written) {
+            try {
+                Files.deleteIfExists(part.file());
+            } catch (IOException ignore) {
+                // Best effort; the error that got us here is more useful
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing parts", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
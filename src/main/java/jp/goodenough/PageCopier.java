@@ -0,0 +1,157 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Copies selected pages of a source into a destination, cloning only the objects those pages reach.
+ *
+ * <p>{@link PDFMergerUtility#appendDocument} clones the whole source: every page with its content and resources, and
+ * the outlines, forms, structure tree and names of its catalog. For a few pages of a large source, this copies the
+ * pages one by one instead. The clone follows every reference from a selected page except {@code /Parent}, which leads
+ * back into the source's page tree. A reference to a page that is not selected, such as the target of a link, becomes
+ * {@code null}. Attributes that a page inherits from its page tree are copied onto it. Document-level structures of
+ * the source are not carried over, which is also what {@link PdfMerger.Profile#PAGES_ONLY} uses this for.
+ *
+ * <p>Stream data is copied in its encoded form and never decoded. PDFBox 2.0 still parses every object of the source
+ * when it is opened, so that part of the cost remains; what is saved is the cloning and writing of everything else.
+ */
+final class PageCopier {
+
+    /** Page attributes that may be inherited from an ancestor in the page tree. */
+    private static final COSName[] INHERITED = {
+        COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE
+    };
+
+    private final PDDocument destination;
+    private final Set<COSDictionary> sourcePages = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<COSDictionary> selected = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<COSBase, COSBase> clones = new IdentityHashMap<>();
+
+    private PageCopier(PDDocument destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * Append the pages of {@code source} selected by {@code ranges} to {@code destination}, in the order of the
+     * ranges. Every range must lie within the pages of {@code source}.
+     */
+    static void copy(PDDocument source, List<PageRange> ranges, PDDocument destination) throws IOException {
+        PageCopier copier = new PageCopier(destination);
+        for (PDPage page : source.getPages()) {
+            copier.sourcePages.add(page.getCOSObject());
+        }
+        List<COSDictionary> pages = new ArrayList<>(PageRange.count(ranges));
+        for (PageRange range : ranges) {
+            for (int i = range.first(); i <= range.last(); i++) {
+                COSDictionary page = source.getPage(i - 1).getCOSObject();
+                pages.add(page);
+                copier.selected.add(page);
+            }
+        }
+        for (COSDictionary page : pages) {
+            destination.addPage(new PDPage(copier.clonePage(page)));
+        }
+        // As appendDocument does, so that features of the source's version remain valid
+        if (destination.getVersion() < source.getVersion()) {
+            destination.setVersion(source.getVersion());
+        }
+    }
+
+    private COSDictionary clonePage(COSDictionary page) throws IOException {
+        COSDictionary clone = (COSDictionary) cloneObject(page);
+        for (COSName key : INHERITED) {
+            if (!clone.containsKey(key)) {
+                COSBase value = inherited(page, key);
+                if (value != null) {
+                    clone.setItem(key, cloneObject(value));
+                }
+            }
+        }
+        // Points into the structure tree of the source, which is not copied
+        clone.removeItem(COSName.STRUCT_PARENTS);
+        return clone;
+    }
+
+    /** The value of {@code key} on the nearest ancestor of {@code page} that has it, or {@code null}. */
+    private static COSBase inherited(COSDictionary page, COSName key) {
+        Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        COSBase node = page.getDictionaryObject(COSName.PARENT);
+        while (node instanceof COSDictionary parent && visited.add(parent)) {
+            COSBase value = parent.getItem(key);
+            if (value != null) {
+                return value;
+            }
+            node = parent.getDictionaryObject(COSName.PARENT);
+        }
+        return null;
+    }
+
+    private COSBase cloneObject(COSBase base) throws IOException {
+        if (base instanceof COSObject reference) {
+            base = reference.getObject();
+            if (base == null) {
+                return COSNull.NULL;
+            }
+        }
+        if (!(base instanceof COSDictionary) && !(base instanceof COSArray)) {
+            // Names, numbers, strings, booleans and null are never modified, so they can be shared
+            return base;
+        }
+        COSBase done = clones.get(base);
+        if (done != null) {
+            return done;
+        }
+        if (base instanceof COSArray array) {
+            COSArray clone = new COSArray();
+            clones.put(array, clone);
+            for (int i = 0; i < array.size(); i++) {
+                clone.add(cloneObject(array.get(i)));
+            }
+            return clone;
+        }
+        COSDictionary dictionary = (COSDictionary) base;
+        boolean page = sourcePages.contains(dictionary);
+        if (page && !selected.contains(dictionary) || COSName.PAGES.equals(dictionary.getCOSName(COSName.TYPE))) {
+            return COSNull.NULL;
+        }
+        COSDictionary clone;
+        if (dictionary instanceof COSStream stream) {
+            COSStream copy = destination.getDocument().createCOSStream();
+            try (InputStream in = stream.createRawInputStream(); OutputStream out = copy.createRawOutputStream()) {
+                IOUtils.copy(in, out);
+            }
+            clone = copy;
+        } else {
+            clone = new COSDictionary();
+        }
+        clones.put(dictionary, clone);
+        for (Map.Entry<COSName, COSBase> entry : dictionary.entrySet()) {
+            COSName key = entry.getKey();
+            if (page && COSName.PARENT.equals(key) || clone instanceof COSStream && COSName.LENGTH.equals(key)) {
+                // The destination sets the parent when the page is added, and the stream its own length
+                continue;
+            }
+            clone.setItem(key, cloneObject(entry.getValue()));
+        }
+        return clone;
+    }
+}
@@ -0,0 +1,89 @@
+package jp.goodenough;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Pages {@code first} to {@code last} of a source document, both inclusive and counted from 1.
+ *
+ * <p>A page selection is a list of ranges, merged in the order given, as in {@code report.pdf[1-3,10]}.
+ *
+ * @param first first page in the range
+ * @param last last page in the range
+ */
+record PageRange(int first, int last) {
+
+    PageRange {
+        if (first < 1 || last < first) {
+            throw new IllegalArgumentException("Invalid page range: " + first + "-" + last);
+        }
+    }
+
+    /**
+     * Parse a selection such as {@code 1-3,10}. Malformed ranges and pages selected more than once are reported as
+     * {@link IllegalArgumentException}.
+     */
+    static List<PageRange> parseList(String text) {
+        List<PageRange> ranges = new ArrayList<>();
+        for (String part : text.split(",", -1)) {
+            String range = part.trim();
+            int dash = range.indexOf('-');
+            try {
+                ranges.add(dash < 0
+                        ? new PageRange(Integer.parseInt(range), Integer.parseInt(range))
+                        : new PageRange(Integer.parseInt(range.substring(0, dash).trim()),
+                                Integer.parseInt(range.substring(dash + 1).trim())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page range: " + range, e);
+            }
+        }
+        List<PageRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingInt(PageRange::first));
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).first() <= sorted.get(i - 1).last()) {
+                throw new IllegalArgumentException("Page " + sorted.get(i).first() + " is selected more than once");
+            }
+        }
+        return List.copyOf(ranges);
+    }
+
+    /** Number of pages selected by {@code ranges}. */
+    static int count(List<PageRange> ranges) {
+        int count = 0;
+        for (PageRange range : ranges) {
+            count += range.size();
+        }
+        return count;
+    }
+
+    /** The {@code count} pages that follow the first {@code skip} pages selected by {@code ranges}, in order. */
+    static List<PageRange> slice(List<PageRange> ranges, int skip, int count) {
+        List<PageRange> slice = new ArrayList<>();
+        for (PageRange range : ranges) {
+            if (count == 0) {
+                break;
+            }
+            if (skip >= range.size()) {
+                skip -= range.size();
+                continue;
+            }
+            int first = range.first() + skip;
+            int last = Math.min(range.last(), first + count - 1);
+            slice.add(new PageRange(first, last));
+            count -= last - first + 1;
+            skip = 0;
+        }
+        return List.copyOf(slice);
+    }
+
+    /** Number of pages in the range. */
+    int size() {
+        return last - first + 1;
+    }
+
+    @Override
+    public String toString() {
+        return first == last ? Integer.toString(first) : first + "-" + last;
+    }
+}
@@ -0,0 +1,531 @@
+package jp.goodenough;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Merges source PDFs into a single output file or stream.
+ *
+ * <p>This mirrors {@link PDFMergerUtility#mergeDocuments(MemoryUsageSetting)} in legacy mode, but runs the loop itself
+ * so that scratch usage can be observed while the documents are still open.
+ *
+ * <p>With {@link MergeOptions#passThrough()}, a merge with a single source copies the file as-is with {@link
+ * FileChannel#transferTo}, so its bytes never pass through the heap; a stream output gets a plain copy instead. This
+ * is the only zero-copy path. It is off by default, since the copy keeps whatever the source holds: incremental
+ * updates, a damaged cross-reference table and unused objects, which re-serializing drops or repairs. With several
+ * sources, {@link PDFMergerUtility#appendDocument} copies stream data still encoded, but from the buffer the parser
+ * read it into, and {@link COSWriter} counts every byte it writes for the cross-reference table. So byte ranges of
+ * the source files cannot be spliced into a re-serialized document.
+ *
+ * <p>With {@link MergeOptions#prefetch()}, the inputs after the current one are opened ahead by a {@link Prefetcher}.
+ * This is also how {@link MergeOptions#parallelism()} runs a single merge in parallel: parsing is the bulk of the work
+ * for most inputs and is independent for each of them, while cloning and saving stay on the caller's thread, since
+ * PDFBox documents are not thread-safe. Each input opened ahead is an extra open document in the memory budget.
+ *
+ * <p>An input of {@link InputScanner#STANDARD_INPUT} is read from the stream given to the constructor. PDFBox needs
+ * random access to parse a document, so it buffers the stream as it does for any input stream: on the heap within the
+ * memory budget, and in a scratch file beyond it.
+ *
+ * <p>A source with a page selection contributes only the selected pages, which a {@link PageCopier} copies one by one
+ * instead of appending the whole document. Such a source is never passed through. The
+ * {@link Profile#PAGES_ONLY} profile copies every source that way, with all of its pages.
+ *
+ * <p>With {@link MergeOptions#bookmarks()}, the pages each input contributes are counted as it is appended, and the
+ * output gets an outline item per input from {@link Bookmarks} before it is saved.
+ *
+ * <p>Every open, append and save goes through a helper that records it in the {@link MergeStats} of this merger.
+ */
+final class PdfMerger {
+
+    /** How much of each source is merged besides its pages. */
+    enum Profile {
+        /**
+         * Everything {@link PDFMergerUtility#appendDocument} merges: the pages, and the structure tree, form fields,
+         * outlines, named destinations and page labels of the catalog.
+         */
+        FULL,
+        /** As {@link #FULL}, and identical stream resources are written only once, as with {@code --dedup}. */
+        OPTIMIZED_RESOURCES,
+        /** Only the pages, copied by a {@link PageCopier}; nothing is taken from the catalog of a source. */
+        PAGES_ONLY
+    }
+
+    /** Buffer between {@code COSWriter} and a caller's stream, which may flush on every write. */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    private final MergeOptions options;
+    private final MergeStats stats;
+    private final InputStream standardInput;
+    private final AtomicBoolean standardInputRead = new AtomicBoolean();
+    private final Map<Path, List<PageRange>> pageRanges;
+
+    PdfMerger(MergeOptions options) {
+        this(options, new MergeStats());
+    }
+
+    PdfMerger(MergeOptions options, MergeStats stats) {
+        this(options, stats, null);
+    }
+
+    /** A merger that reads {@link InputScanner#STANDARD_INPUT} from {@code standardInput}, which may be null. */
+    PdfMerger(MergeOptions options, MergeStats stats, InputStream standardInput) {
+        this(options, stats, standardInput, Map.of());
+    }
+
+    /** A merger that takes only the pages selected in {@code pageRanges} from the sources listed there. */
+    PdfMerger(MergeOptions options, MergeStats stats, InputStream standardInput,
+            Map<Path, List<PageRange>> pageRanges) {
+        this.options = Objects.requireNonNull(options, "options");
+        this.stats = Objects.requireNonNull(stats, "stats");
+        this.standardInput = standardInput;
+        this.pageRanges = Map.copyOf(pageRanges);
+    }
+
+    MergeResult merge(List<Path> inputs, Path output) throws IOException {
+        Objects.requireNonNull(inputs, "inputs");
+        Objects.requireNonNull(output, "output");
+        return options.incremental()
+                ? mergeIncremental(inputs, output)
+                : rebuild(inputs, fileSink(output, options.fsync()));
+    }
+
+    /**
+     * Merge into {@code out} as the output is serialized; {@code out} is flushed but not closed. An incremental merge
+     * needs the previous output, so it cannot write to a stream.
+     */
+    MergeResult merge(List<Path> inputs, OutputStream out) throws IOException {
+        Objects.requireNonNull(inputs, "inputs");
+        Objects.requireNonNull(out, "out");
+        if (options.incremental()) {
+            throw new IllegalArgumentException("An incremental merge needs an output file");
+        }
+        return rebuild(inputs, streamSink(out));
+    }
+
+    /** Number of pages in {@code source}, which is opened as for a merge. */
+    int pageCount(Path source) throws IOException {
+        try (ScratchSpace scratch = ScratchSpace.open(options);
+                PDDocument doc = open(source, scratch.memoryUsageSetting())) {
+            return doc.getNumberOfPages();
+        }
+    }
+
+    private MergeResult rebuild(List<Path> inputs, Sink output) throws IOException {
+        try (ScratchSpace scratch = ScratchSpace.open(options)) {
+            if (inputs.size() == 1 && options.allowsPassThrough() && isWhole(inputs.get(0))) {
+                int pages = passThrough(inputs.get(0), output, scratch.memoryUsageSetting());
+                return new MergeResult(1, pages, scratch.peakBytes());
+            }
+            Bookmarks bookmarks = new Bookmarks(options.bookmarks(), inputs);
+            return options.streaming()
+                    ? mergeStreaming(inputs, output, scratch, bookmarks)
+                    : mergeBuffered(inputs, output, scratch, bookmarks);
+        }
+    }
+
+    /**
+     * Append the inputs that are new since the last run to the output as an incremental update, or rebuild the output
+     * when the previous inputs are not an unchanged prefix of {@code inputs}.
+     *
+     * <p>The existing output is still parsed, since PDFBox parses every object when it opens a document. Its stream
+     * data, though, is neither read nor written again; only the new pages and the document-level structure are.
+     */
+    private MergeResult mergeIncremental(List<Path> inputs, Path output) throws IOException {
+        Path manifestFile = MergeManifest.pathFor(output);
+        List<MergeManifest.Entry> current = MergeManifest.describe(inputs);
+        MergeManifest previous = MergeManifest.read(manifestFile);
+        int covered = previous == null ? -1 : previous.coveredPrefix(current, output, options);
+        if (covered == inputs.size()) {
+            return new MergeResult(0, previous.pages(), 0, MergeResult.Update.UNCHANGED);
+        }
+        MergeResult result;
+        if (covered > 0) {
+            result = appendIncrement(inputs.subList(covered, inputs.size()), output);
+        } else {
+            // A rebuild that fails halfway must not leave a manifest describing the old output
+            Files.deleteIfExists(manifestFile);
+            result = rebuild(inputs, fileSink(output, options.fsync()));
+        }
+        MergeManifest.of(current, output, result.pages(), options).write(manifestFile);
+        return result;
+    }
+
+    private MergeResult appendIncrement(List<Path> added, Path output) throws IOException {
+        try (ScratchSpace scratch = ScratchSpace.open(options)) {
+            MemoryUsageSetting partition = scratch.memoryUsageSetting().getPartitionedCopy(2 + options.prefetch());
+            long originalLength = Files.size(output);
+            PDFMergerUtility merger = new PDFMergerUtility();
+            try (PDDocument destination = open(output, partition);
+                    Prefetcher ahead = new Prefetcher(added, options.prefetch(), in -> open(in, partition))) {
+                // appendDocument adds every page to the end of the root /Kids
+                COSArray kids = (COSArray) destination.getPages().getCOSObject().getDictionaryObject(COSName.KIDS);
+                int firstNew = kids.size();
+                for (int i = 0; i < added.size(); i++) {
+                    try (PDDocument source = ahead.next()) {
+                        append(merger, destination, source, added.get(i));
+                        scratch.sample();
+                    }
+                }
+                List<PDPage> newPages = new ArrayList<>(kids.size() - firstNew);
+                for (int i = firstNew; i < kids.size(); i++) {
+                    newPages.add(new PDPage((COSDictionary) kids.getObject(i)));
+                }
+                try (MergeStats.Span span = stats.start(MergeStats.Phase.SAVE)) {
+                    if (options.deduplicate()) {
+                        new ResourceDeduplicator().deduplicate(newPages);
+                    }
+                    if (options.compact()) {
+                        new StreamCompactor().compact(destination, newPages);
+                    }
+                    stats.addBytesWritten(
+                            IncrementalWriter.append(destination, output, originalLength, options.fsync()));
+                }
+                scratch.sample();
+                return new MergeResult(added.size(), destination.getNumberOfPages(), scratch.peakBytes(),
+                        MergeResult.Update.APPENDED);
+            }
+        }
+    }
+
+    /** Keep every source open until the destination is saved, as PDFMergerUtility does. */
+    private MergeResult mergeBuffered(List<Path> inputs, Sink output, ScratchSpace scratch, Bookmarks bookmarks)
+            throws IOException {
+        // Same split as PDFMergerUtility: every open document gets an equal share of the budget
+        MemoryUsageSetting partition = scratch.memoryUsageSetting().getPartitionedCopy(inputs.size() + 1);
+        PDFMergerUtility merger = new PDFMergerUtility();
+        List<PDDocument> sources = new ArrayList<>();
+        PDDocument destination = null;
+        try (Prefetcher ahead = new Prefetcher(inputs, options.prefetch(), in -> open(in, partition))) {
+            destination = new PDDocument(partition);
+            for (int i = 0; i < inputs.size(); i++) {
+                PDDocument source = ahead.next();
+                sources.add(source);
+                bookmarks.record(i, append(merger, destination, source, inputs.get(i)));
+                scratch.sample();
+            }
+            bookmarks.addTo(destination);
+            save(destination, output);
+            scratch.sample();
+            return new MergeResult(inputs.size(), destination.getNumberOfPages(), scratch.peakBytes());
+        } finally {
+            IOUtils.closeQuietly(destination);
+            for (PDDocument source : sources) {
+                IOUtils.closeQuietly(source);
+            }
+        }
+    }
+
+    /**
+     * Open each source just before it is appended and close it right after.
+     *
+     * <p>{@link PDFMergerUtility#appendDocument} deep-copies everything it takes from the source, including stream
+     * data, so the source is no longer needed once it returns. Only the destination and one source are ever open, which
+     * keeps the number of file handles constant and lets each of them use half of the memory budget. Sources opened
+     * ahead take a share of their own.
+     */
+    private MergeResult mergeStreaming(List<Path> inputs, Sink output, ScratchSpace scratch, Bookmarks bookmarks)
+            throws IOException {
+        MemoryUsageSetting partition = scratch.memoryUsageSetting().getPartitionedCopy(2 + options.prefetch());
+        PDFMergerUtility merger = new PDFMergerUtility();
+        try (PDDocument destination = new PDDocument(partition);
+                Prefetcher ahead = new Prefetcher(inputs, options.prefetch(), in -> open(in, partition))) {
+            for (int i = 0; i < inputs.size(); i++) {
+                try (PDDocument source = ahead.next()) {
+                    bookmarks.record(i, append(merger, destination, source, inputs.get(i)));
+                    scratch.sample();
+                }
+            }
+            bookmarks.addTo(destination);
+            save(destination, output);
+            scratch.sample();
+            return new MergeResult(inputs.size(), destination.getNumberOfPages(), scratch.peakBytes());
+        }
+    }
+
+    private PDDocument open(Path source, MemoryUsageSetting memory) throws IOException {
+        try (MergeStats.Span span = stats.start(MergeStats.Phase.OPEN)) {
+            if (isStandardInput(source)) {
+                return loadStandardInput(memory);
+            }
+            PDDocument doc = options.mmap() ? loadMapped(source, memory) : PDDocument.load(source.toFile(), memory);
+            stats.addBytesRead(Files.size(source));
+            return doc;
+        }
+    }
+
+    private static boolean isStandardInput(Path source) {
+        return InputScanner.STANDARD_INPUT.equals(source);
+    }
+
+    /** Whether every page of {@code source} is merged as stored, so that it can be passed through. */
+    private boolean isWhole(Path source) {
+        return !isStandardInput(source) && !pageRanges.containsKey(source);
+    }
+
+    private PDDocument loadStandardInput(MemoryUsageSetting memory) throws IOException {
+        if (standardInput == null) {
+            throw new IOException("Standard input is not available here");
+        }
+        if (!standardInputRead.compareAndSet(false, true)) {
+            throw new IOException("Standard input can only be read once");
+        }
+        CountingInputStream in = new CountingInputStream(standardInput);
+        PDDocument doc = PDDocument.load(in, memory);
+        stats.addBytesRead(in.count);
+        return doc;
+    }
+
+    /** {@link PDDocument#load(java.io.File, MemoryUsageSetting)}, reading the file through a memory mapping. */
+    private static PDDocument loadMapped(Path source, MemoryUsageSetting memory) throws IOException {
+        MappedRandomAccessRead input = new MappedRandomAccessRead(source);
+        ScratchFile scratchFile = null;
+        try {
+            scratchFile = new ScratchFile(memory);
+            PDFParser parser = new PDFParser(input, "", scratchFile);
+            parser.parse();
+            // The document closes both when it is closed
+            return parser.getPDDocument();
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(scratchFile);
+            IOUtils.closeQuietly(input);
+            throw e;
+        }
+    }
+
+    /** Append the pages of {@code source} that are merged to {@code destination}, and return how many there were. */
+    private int append(PDFMergerUtility merger, PDDocument destination, PDDocument source, Path path)
+            throws IOException {
+        List<PageRange> ranges = pageRanges.get(path);
+        try (MergeStats.Span span = stats.start(MergeStats.Phase.CLONE)) {
+            if (ranges == null && options.profile() != Profile.PAGES_ONLY) {
+                int before = destination.getNumberOfPages();
+                merger.appendDocument(destination, source);
+                return destination.getNumberOfPages() - before;
+            }
+            int pages = source.getNumberOfPages();
+            if (ranges == null) {
+                ranges = pages > 0 ? List.of(new PageRange(1, pages)) : List.of();
+            }
+            for (PageRange range : ranges) {
+                if (range.last() > pages) {
+                    throw new IOException("Page range " + range + " is beyond the " + pages + " page(s) of " + path);
+                }
+            }
+            PageCopier.copy(source, ranges, destination);
+            return PageRange.count(ranges);
+        }
+    }
+
+    /** Final touches shared by every engine, then write {@code destination} to {@code target}. */
+    private void save(PDDocument destination, Sink target) throws IOException {
+        try (MergeStats.Span span = stats.start(MergeStats.Phase.SAVE)) {
+            if (options.deduplicate()) {
+                new ResourceDeduplicator().deduplicate(destination);
+            }
+            if (options.compact()) {
+                new StreamCompactor().compact(destination);
+            }
+            // Same as PDDocument.save(File), minus font subsetting, which a merge never schedules
+            target.write(stream -> {
+                CountingOutputStream out = new CountingOutputStream(stream);
+                try (CountingWriter writer = new CountingWriter(out)) {
+                    writer.write(destination);
+                    stats.addObjectsWritten(writer.objects);
+                }
+                stats.addBytesWritten(out.count);
+            });
+        }
+    }
+
+    /**
+     * Copy a single source to {@code target} without re-serializing it.
+     *
+     * <p>The source is still opened once to validate it and count its pages. PDFBox 2.0 parses the whole document for
+     * that, stream data included, so what the copy saves is the serialization, not the parse.
+     */
+    private int passThrough(Path source, Sink target, MemoryUsageSetting memory) throws IOException {
+        int pages;
+        try (PDDocument doc = open(source, memory)) {
+            pages = doc.getNumberOfPages();
+        }
+        try (MergeStats.Span span = stats.start(MergeStats.Phase.SAVE)) {
+            stats.addBytesWritten(target.copy(source));
+        }
+        return pages;
+    }
+
+    /** A file written through {@link OutputFile}; a copy is a {@link FileChannel#transferTo} into its channel. */
+    private static Sink fileSink(Path file, OutputFile.Fsync fsync) {
+        return new Sink() {
+            @Override
+            public void write(Body body) throws IOException {
+                OutputFile out = OutputFile.create(file, fsync);
+                try {
+                    body.writeTo(out);
+                } catch (IOException | RuntimeException e) {
+                    out.discard(e);
+                    throw e;
+                }
+                out.close();
+            }
+
+            @Override
+            public long copy(Path source) throws IOException {
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    OutputFile out = OutputFile.create(file, fsync);
+                    try {
+                        long position = 0;
+                        while (position < size) {
+                            position += in.transferTo(position, size - position, out.channel());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        out.discard(e);
+                        throw e;
+                    }
+                    out.close();
+                    return size;
+                }
+            }
+        };
+    }
+
+    /** A caller's stream, such as standard output, which is flushed but not closed. */
+    private static Sink streamSink(OutputStream stream) {
+        return new Sink() {
+            @Override
+            public void write(Body body) throws IOException {
+                BufferedOutputStream out = new BufferedOutputStream(stream, STREAM_BUFFER_SIZE);
+                body.writeTo(out);
+                out.flush();
+            }
+
+            @Override
+            public long copy(Path source) throws IOException {
+                long size = Files.copy(source, stream);
+                stream.flush();
+                return size;
+            }
+        };
+    }
+
+    /** Where a merge writes its result: a file, or a stream when merging to standard output. */
+    private interface Sink {
+
+        /**
+         * Have {@code body} serialize the output into a stream, and complete the output once it returns. A file is
+         * left as it was when {@code body} fails.
+         */
+        void write(Body body) throws IOException;
+
+        /** Copy {@code source} unchanged to the output and return the number of bytes copied. */
+        long copy(Path source) throws IOException;
+    }
+
+    /** Serializes the output; the stream it is given is completed by the {@link Sink}, not by closing it. */
+    private interface Body {
+
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Counts the bytes written through it; closing it only flushes, since the {@link Sink} completes the output. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /** Counts the bytes read through it. */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // Standard input belongs to the caller
+        }
+    }
+
+    /** Counts the indirect objects it writes. */
+    private static final class CountingWriter extends COSWriter {
+
+        private long objects;
+
+        CountingWriter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void doWriteObject(COSBase obj) throws IOException {
+            objects++;
+            super.doWriteObject(obj);
+        }
+    }
+}
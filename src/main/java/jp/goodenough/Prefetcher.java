@@ -0,0 +1,112 @@
+package jp.goodenough;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Hands out the inputs of a merge in order, opening up to {@code depth} of the following ones on a pool of
+ * {@code depth} threads while the caller appends the current one. Platform threads keep a CPU clock, so the parse
+ * stays visible in {@link MergeStats}.
+ *
+ * <p>A prefetched input is parsed completely before it is handed out, since PDFBox 2.0 parses every object when it
+ * loads a document. Parsed documents live under the {@link org.apache.pdfbox.io.MemoryUsageSetting} they are opened
+ * with, so the memory budget covers them like any other open document.
+ *
+ * <p>With a depth of {@code 0} every input is opened on the caller's thread when it is requested, as without this
+ * class. A failure to open an input is reported when that input is requested, so the inputs before it are merged
+ * first, as they would be without prefetching.
+ */
+final class Prefetcher implements Closeable {
+
+    /** Opens one input; {@link PdfMerger} passes its own {@code open}, so statistics are recorded as usual. */
+    interface Opener {
+        PDDocument open(Path source) throws IOException;
+    }
+
+    private final List<Path> inputs;
+    private final int depth;
+    private final Opener opener;
+    private final Deque<Future<PDDocument>> pending = new ArrayDeque<>();
+    private ExecutorService executor;
+    private int next;
+
+    Prefetcher(List<Path> inputs, int depth, Opener opener) {
+        this.inputs = inputs;
+        this.depth = depth;
+        this.opener = opener;
+        fill();
+    }
+
+    /** Open the next input; the caller owns the returned document. */
+    PDDocument next() throws IOException {
+        if (depth == 0) {
+            if (next >= inputs.size()) {
+                throw new NoSuchElementException();
+            }
+            return opener.open(inputs.get(next++));
+        }
+        Future<PDDocument> current = pending.poll();
+        if (current == null) {
+            throw new NoSuchElementException();
+        }
+        // Keep depth inputs in flight while the caller works on this one
+        fill();
+        return await(current);
+    }
+
+    /** Wait for inputs that are still being opened and close them. */
+    @Override
+    public void close() {
+        for (Future<PDDocument> document : pending) {
+            try {
+                IOUtils.closeQuietly(document.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Never handed out, so nobody is waiting for the error
+            }
+        }
+        pending.clear();
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    private void fill() {
+        while (pending.size() < depth && next < inputs.size()) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(depth);
+            }
+            Path source = inputs.get(next++);
+            pending.add(executor.submit(() -> opener.open(source)));
+        }
+    }
+
+    private static PDDocument await(Future<PDDocument> document) throws IOException {
+        try {
+            return document.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening an input", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Collapses identical resources of a merged document into a single shared object.
+ *
+ * <p>Merging documents made from the same template leaves one copy of every font, image and ICC profile per source.
+ * Before the destination is saved, this walks the resources, contents and annotations of every page. Each stream is
+ * keyed by a SHA-256 digest of its raw (still encoded) bytes plus its dictionary, and font, font descriptor and
+ * graphics state dictionaries by their entries. References to a later duplicate are repointed at the first copy.
+ * {@code COSWriter} only writes objects that are still reachable, so the duplicates are dropped from the output.
+ *
+ * <p>Children are canonicalized before their parents, so a font whose embedded font file was a duplicate becomes a
+ * duplicate itself.
+ */
+final class ResourceDeduplicator {
+
+    /** Nested direct dictionaries and arrays deeper than this are not worth describing; such objects stay unshared. */
+    private static final int MAX_DESCRIBE_DEPTH = 16;
+
+    /** Keys that lead away from resources into navigation or structure; they are never followed. */
+    static final Set<COSName> NON_RESOURCE_KEYS = Set.of(COSName.PARENT, COSName.P, COSName.getPDFName("Dest"),
+            COSName.getPDFName("A"), COSName.NEXT, COSName.PREV, COSName.FIRST, COSName.LAST);
+
+    private static final Set<COSName> SHAREABLE_TYPES =
+            Set.of(COSName.FONT, COSName.FONT_DESC, COSName.EXT_G_STATE);
+
+    private final Map<String, COSBase> canonicalByKey = new HashMap<>();
+    private final Map<COSBase, COSBase> resolved = new IdentityHashMap<>();
+    private final Map<COSBase, Integer> ids = new IdentityHashMap<>();
+    private final Set<COSBase> describing = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final MessageDigest digest;
+    private int duplicates;
+    private long duplicateBytes;
+
+    ResourceDeduplicator() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Share identical resources across all pages of {@code document}. */
+    void deduplicate(PDDocument document) throws IOException {
+        deduplicate(document.getPages());
+    }
+
+    /** Share identical resources across {@code pages}; resources of other pages are not considered. */
+    void deduplicate(Iterable<PDPage> pages) throws IOException {
+        for (PDPage page : pages) {
+            COSDictionary dict = page.getCOSObject();
+            replaceEntry(dict, COSName.RESOURCES);
+            replaceEntry(dict, COSName.CONTENTS);
+            replaceEntry(dict, COSName.ANNOTS);
+        }
+    }
+
+    /** Number of objects that were replaced by an identical earlier object. */
+    int duplicates() {
+        return duplicates;
+    }
+
+    /** Raw stream bytes that no longer need to be written. */
+    long duplicateBytes() {
+        return duplicateBytes;
+    }
+
+    private void replaceEntry(COSDictionary dict, COSName key) throws IOException {
+        COSBase value = dict.getItem(key);
+        if (value == null) {
+            return;
+        }
+        COSBase replacement = visit(value);
+        if (replacement != value) {
+            dict.setItem(key, replacement);
+        }
+    }
+
+    /** Canonicalize {@code base} and everything below it; returns the object references should point to. */
+    private COSBase visit(COSBase base) throws IOException {
+        if (base instanceof COSObject ref) {
+            COSBase target = ref.getObject();
+            if (target == null) {
+                return base;
+            }
+            COSBase replacement = visit(target);
+            return replacement == target ? base : replacement;
+        }
+        COSBase known = resolved.get(base);
+        if (known != null) {
+            return known;
+        }
+        if (base instanceof COSArray array) {
+            resolved.put(array, array);
+            for (int i = 0; i < array.size(); i++) {
+                COSBase element = array.get(i);
+                COSBase replacement = element == null ? null : visit(element);
+                if (replacement != element) {
+                    array.set(i, replacement);
+                }
+            }
+            return array;
+        }
+        if (!(base instanceof COSDictionary dict) || isPageNode(dict)) {
+            return base;
+        }
+        resolved.put(dict, dict);
+        // Copy the keys first: entries are replaced while walking them
+        for (COSName key : new ArrayList<>(dict.keySet())) {
+            if (!NON_RESOURCE_KEYS.contains(key)) {
+                replaceEntry(dict, key);
+            }
+        }
+        COSName type = dict.getCOSName(COSName.TYPE);
+        // Set.of rejects null lookups, and most dictionaries, page /Resources among them, have no /Type
+        if (!(dict instanceof COSStream) && (type == null || !SHAREABLE_TYPES.contains(type))) {
+            return dict;
+        }
+        String key = keyOf(dict);
+        if (key == null) {
+            return dict;
+        }
+        COSBase canonical = canonicalByKey.putIfAbsent(key, dict);
+        if (canonical == null) {
+            ids.put(dict, ids.size());
+            return dict;
+        }
+        resolved.put(dict, canonical);
+        duplicates++;
+        if (dict instanceof COSStream stream) {
+            duplicateBytes += stream.getLength();
+        }
+        return canonical;
+    }
+
+    private String keyOf(COSDictionary dict) throws IOException {
+        String description = describe(dict, 0, true);
+        if (description == null) {
+            return null;
+        }
+        if (!(dict instanceof COSStream stream)) {
+            return description;
+        }
+        digest.reset();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = stream.createRawInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest()) + description;
+    }
+
+    /**
+     * Describe an object by value. Objects that were already registered as canonical are described by their id, so
+     * descriptions stay short and equal descriptions mean equal content. Returns {@code null} for anything that cannot
+     * be described safely, such as reference cycles.
+     */
+    private String describe(COSBase base, int depth, boolean top) {
+        if (base instanceof COSObject ref) {
+            base = ref.getObject();
+        }
+        if (base == null || base instanceof COSNull) {
+            return "null";
+        }
+        if (!top) {
+            Integer id = ids.get(resolved.getOrDefault(base, base));
+            if (id != null) {
+                return "#" + id;
+            }
+        }
+        if (base instanceof COSName name) {
+            return "/" + name.getName();
+        }
+        if (base instanceof COSInteger number) {
+            return Long.toString(number.longValue());
+        }
+        if (base instanceof COSFloat number) {
+            return Float.toString(number.floatValue());
+        }
+        if (base instanceof COSBoolean bool) {
+            return Boolean.toString(bool.getValue());
+        }
+        if (base instanceof COSString string) {
+            return "(" + HexFormat.of().formatHex(string.getBytes()) + ")";
+        }
+        if (depth > MAX_DESCRIBE_DEPTH || !describing.add(base)) {
+            return null;
+        }
+        try {
+            StringBuilder sb = new StringBuilder();
+            if (base instanceof COSArray array) {
+                sb.append('[');
+                for (COSBase element : array) {
+                    String d = describe(element, depth + 1, false);
+                    if (d == null) {
+                        return null;
+                    }
+                    sb.append(d).append(' ');
+                }
+                return sb.append(']').toString();
+            }
+            if (base instanceof COSDictionary dict) {
+                if (!top && (dict instanceof COSStream || isPageNode(dict))) {
+                    // A stream that was not registered, or a page: identity matters, not content
+                    return null;
+                }
+                List<COSName> keys = new ArrayList<>(dict.keySet());
+                Collections.sort(keys);
+                sb.append("<<");
+                for (COSName key : keys) {
+                    String d = describe(dict.getItem(key), depth + 1, false);
+                    if (d == null) {
+                        return null;
+                    }
+                    sb.append('/').append(key.getName()).append(' ').append(d).append(' ');
+                }
+                return sb.append(">>").toString();
+            }
+            return null;
+        } finally {
+            describing.remove(base);
+        }
+    }
+
+    static boolean isPageNode(COSDictionary dict) {
+        COSName type = dict.getCOSName(COSName.TYPE);
+        return COSName.PAGE.equals(type) || COSName.PAGES.equals(type);
+    }
+}
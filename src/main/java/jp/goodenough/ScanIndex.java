@@ -0,0 +1,194 @@
+package jp.goodenough;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the previous scan of one input root found, so that the next scan only reads what changed.
+ *
+ * <p>For every directory the index keeps its modification time and the names of its entries. Adding, removing or
+ * renaming an entry changes the modification time of its directory, so a directory whose time is unchanged is not read
+ * again; only its subdirectories are stat'ed to find changes further down. For {@code --detect content} the index also
+ * keeps the verdict for every candidate, and reuses it while the file's size and modification time are unchanged.
+ *
+ * <p>On a file system with coarse timestamps, something modified right after it was read can keep its timestamp.
+ * Anything modified within {@link #RACY_NANOS} of the scan start is therefore not recorded and is read again next time.
+ *
+ * <p>Each root has its own file in the index directory, named after a hash of the root's absolute path. It is a cache:
+ * a missing, outdated or unreadable file just means a full scan.
+ */
+final class ScanIndex {
+
+    private static final int MAGIC = 0x4d505358;
+    private static final int VERSION = 1;
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** The entries of one directory as they were when its modification time was {@code modifiedNanos}. */
+    record Listing(long modifiedNanos, List<String> directories, List<String> files) {
+    }
+
+    private record Verdict(long size, long modifiedNanos, boolean pdf) {
+    }
+
+    private final Path file;
+    private final String root;
+    private final long trustedBefore;
+    private final Map<String, Listing> listings;
+    private final Map<String, Verdict> verdicts;
+    private final Map<String, Listing> nextListings = new ConcurrentHashMap<>();
+    private final Map<String, Verdict> nextVerdicts = new ConcurrentHashMap<>();
+
+    private ScanIndex(Path file, Path root, Map<String, Listing> listings, Map<String, Verdict> verdicts) {
+        this.file = file;
+        this.root = key(root);
+        this.trustedBefore = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - RACY_NANOS;
+        this.listings = listings;
+        this.verdicts = verdicts;
+    }
+
+    /** Index file for {@code root} in {@code indexDir}. */
+    static Path pathFor(Path indexDir, Path root) {
+        String key = key(root);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return indexDir.resolve(HexFormat.of().formatHex(digest, 0, 16) + ".idx");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Load the index of {@code root}, or start an empty one when there is none or it cannot be read. */
+    static ScanIndex load(Path indexDir, Path root) {
+        Path file = pathFor(indexDir, root);
+        Map<String, Listing> listings = new HashMap<>();
+        Map<String, Verdict> verdicts = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key(root))) {
+                return new ScanIndex(file, root, Map.of(), Map.of());
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                String dir = in.readUTF();
+                long modified = in.readLong();
+                listings.put(dir, new Listing(modified, readNames(in), readNames(in)));
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                String path = in.readUTF();
+                verdicts.put(path, new Verdict(in.readLong(), in.readLong(), in.readBoolean()));
+            }
+        } catch (IOException e) {
+            // Missing, truncated or unreadable: scan everything and replace it
+            return new ScanIndex(file, root, Map.of(), Map.of());
+        }
+        return new ScanIndex(file, root, listings, verdicts);
+    }
+
+    private static List<String> readNames(DataInputStream in) throws IOException {
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        return List.of(names);
+    }
+
+    /**
+     * The entries of {@code dir} from the previous scan if its modification time is unchanged, else {@code null}. A
+     * listing that is returned is kept for the next scan.
+     */
+    Listing listing(Path dir, BasicFileAttributes attrs) {
+        String key = key(dir);
+        Listing listing = listings.get(key);
+        if (listing == null || listing.modifiedNanos() != nanos(attrs)) {
+            return null;
+        }
+        nextListings.put(key, listing);
+        return listing;
+    }
+
+    /** Record the entries just read from {@code dir}. */
+    void record(Path dir, BasicFileAttributes attrs, List<String> directories, List<String> files) {
+        long modified = nanos(attrs);
+        if (modified < trustedBefore) {
+            nextListings.put(key(dir), new Listing(modified, List.copyOf(directories), List.copyOf(files)));
+        }
+    }
+
+    /** Whether {@code file} looked like a PDF in the previous scan, or {@code null} if it changed or is not known. */
+    Boolean verdict(Path file, BasicFileAttributes attrs) {
+        String key = key(file);
+        Verdict verdict = verdicts.get(key);
+        if (verdict == null || verdict.size() != attrs.size() || verdict.modifiedNanos() != nanos(attrs)) {
+            return null;
+        }
+        nextVerdicts.put(key, verdict);
+        return verdict.pdf();
+    }
+
+    /** Record whether {@code file}, with the given attributes, looks like a PDF. */
+    void record(Path file, BasicFileAttributes attrs, boolean pdf) {
+        long modified = nanos(attrs);
+        if (modified < trustedBefore) {
+            nextVerdicts.put(key(file), new Verdict(attrs.size(), modified, pdf));
+        }
+    }
+
+    /** Replace the index file with what this scan recorded; only what was seen this time is kept. */
+    void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root);
+            out.writeInt(nextListings.size());
+            for (Map.Entry<String, Listing> entry : nextListings.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().modifiedNanos());
+                writeNames(out, entry.getValue().directories());
+                writeNames(out, entry.getValue().files());
+            }
+            out.writeInt(nextVerdicts.size());
+            for (Map.Entry<String, Verdict> entry : nextVerdicts.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size());
+                out.writeLong(entry.getValue().modifiedNanos());
+                out.writeBoolean(entry.getValue().pdf());
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static long nanos(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+}
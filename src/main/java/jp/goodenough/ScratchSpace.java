@@ -0,0 +1,89 @@
+package jp.goodenough;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+/**
+ * Private scratch directory for one merge.
+ *
+ * <p>PDFBox deletes its scratch files when the owning document is closed, so the amount spilled cannot be read
+ * afterwards. Each merge therefore gets its own directory, and {@link #sample()} is called at the points where scratch
+ * usage can grow to record the peak.
+ */
+final class ScratchSpace implements Closeable {
+
+    private final MemoryUsageSetting memoryUsageSetting;
+    private final Path directory;
+    private long peakBytes;
+
+    private ScratchSpace(Path directory, MemoryUsageSetting memoryUsageSetting) {
+        this.directory = directory;
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
+
+    static ScratchSpace open(MergeOptions options) throws IOException {
+        Path root = options.scratchDir() != null
+                ? options.scratchDir()
+                : Paths.get(System.getProperty("java.io.tmpdir"));
+        if (!options.hasMemoryBudget()) {
+            return new ScratchSpace(null, MemoryUsageSetting.setupMainMemoryOnly());
+        }
+        Path directory = createDirectory(root);
+        MemoryUsageSetting setting = MemoryUsageSetting.setupMixed(options.maxMemoryBytes())
+                .setTempDir(directory.toFile());
+        return new ScratchSpace(directory, setting);
+    }
+
+    private static Path createDirectory(Path root) throws IOException {
+        Files.createDirectories(root);
+        return Files.createTempDirectory(root, "mergepdf-");
+    }
+
+    MemoryUsageSetting memoryUsageSetting() {
+        return memoryUsageSetting;
+    }
+
+    /** Record current scratch usage if it is the largest seen so far. */
+    synchronized void sample() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        long total = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                try {
+                    total += Files.size(file);
+                } catch (IOException ignore) {
+                    // deleted between listing and stat
+                }
+            }
+        }
+        peakBytes = Math.max(peakBytes, total);
+    }
+
+    synchronized long peakBytes() {
+        return peakBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        List<Path> leftovers;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            leftovers = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path p : leftovers) {
+            Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * Flate-compresses streams of a merged document that are stored without any filter.
+ *
+ * <p>PDFBox 2.0 cannot write object streams or cross-reference streams, so small objects stay uncompressed. The bulk
+ * of an uncompressed PDF, though, is unfiltered content streams and images, and those can be encoded before saving.
+ * A stream is only replaced when the encoded form is smaller. XMP metadata streams are left alone because archival
+ * profiles require them to stay readable.
+ */
+final class StreamCompactor {
+
+    /** Streams smaller than this do not shrink enough to pay for the filter entry. */
+    private static final long MIN_LENGTH = 64;
+
+    private int compressed;
+    private long savedBytes;
+
+    /** Compress the unfiltered streams reachable from the pages of {@code document}. */
+    void compact(PDDocument document) throws IOException {
+        compact(document, document.getPages());
+    }
+
+    /** Compress the unfiltered streams reachable from {@code pages}, which belong to {@code document}. */
+    void compact(PDDocument document, Iterable<PDPage> pages) throws IOException {
+        Set<COSBase> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> pending = new ArrayDeque<>();
+        for (PDPage page : pages) {
+            COSDictionary dict = page.getCOSObject();
+            push(pending, dict.getItem(COSName.RESOURCES));
+            push(pending, dict.getItem(COSName.CONTENTS));
+            push(pending, dict.getItem(COSName.ANNOTS));
+        }
+        // Iterative walk: resource graphs can be wide, and recursion depth is not worth the risk here
+        while (!pending.isEmpty()) {
+            COSBase base = pending.pop();
+            if (base instanceof COSObject ref) {
+                push(pending, ref.getObject());
+                continue;
+            }
+            if (!seen.add(base)) {
+                continue;
+            }
+            if (base instanceof COSArray array) {
+                for (COSBase element : array) {
+                    push(pending, element);
+                }
+            } else if (base instanceof COSDictionary dict && !ResourceDeduplicator.isPageNode(dict)) {
+                for (COSName key : dict.keySet()) {
+                    if (!ResourceDeduplicator.NON_RESOURCE_KEYS.contains(key)) {
+                        push(pending, dict.getItem(key));
+                    }
+                }
+                if (dict instanceof COSStream stream) {
+                    compress(document, stream);
+                }
+            }
+        }
+    }
+
+    int compressed() {
+        return compressed;
+    }
+
+    long savedBytes() {
+        return savedBytes;
+    }
+
+    private static void push(Deque<COSBase> pending, COSBase base) {
+        if (base != null) {
+            pending.push(base);
+        }
+    }
+
+    private void compress(PDDocument document, COSStream stream) throws IOException {
+        if (stream.getItem(COSName.FILTER) != null || stream.getItem(COSName.DECODE_PARMS) != null
+                || COSName.getPDFName("Metadata").equals(stream.getCOSName(COSName.TYPE))) {
+            return;
+        }
+        long rawLength = stream.getLength();
+        if (rawLength < MIN_LENGTH) {
+            return;
+        }
+        // Keep the original bytes in a scratch-backed stream so the memory budget still applies
+        try (COSStream original = document.getDocument().createCOSStream()) {
+            copy(stream, original);
+            try (InputStream in = original.createRawInputStream();
+                    OutputStream out = stream.createOutputStream(COSName.FLATE_DECODE)) {
+                IOUtils.copy(in, out);
+            }
+            if (stream.getLength() >= rawLength) {
+                stream.removeItem(COSName.FILTER);
+                copy(original, stream);
+                return;
+            }
+        }
+        compressed++;
+        savedBytes += rawLength - stream.getLength();
+    }
+
+    private static void copy(COSStream from, COSStream to) throws IOException {
+        try (InputStream in = from.createRawInputStream();
+                OutputStream out = to.createRawOutputStream()) {
+            IOUtils.copy(in, out);
+        }
+    }
+}
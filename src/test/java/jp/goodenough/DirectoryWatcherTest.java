@@ -0,0 +1,89 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+class DirectoryWatcherTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    @Timeout(30)
+    void awaitChange_returnsTrue_when_pdfIsAddedToSubdirectory() throws Exception {
+        // Arrange
+        Path sub = Files.createDirectories(tmp.resolve("sub"));
+        try (DirectoryWatcher watcher = new DirectoryWatcher(tmp, 100, InputScanner.Detection.EXTENSION,
+                p -> false)) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    Thread.sleep(100);
+                    TestPdfs.create(sub.resolve("a.pdf"), 1);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            // Act
+            boolean changed = watcher.awaitChange();
+
+            // Assert
+            assertTrue(changed, "PDF の追加が変更として通知されること");
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void awaitChange_ignoresNonPdfAndIgnoredFiles_when_detectingByExtension() throws Exception {
+        // Arrange
+        Path output = tmp.resolve("out.pdf");
+        DirectoryWatcher watcher = new DirectoryWatcher(tmp, 100, InputScanner.Detection.EXTENSION, output::equals);
+        Thread.ofVirtual().start(() -> {
+            try {
+                Files.writeString(tmp.resolve("notes.txt"), "x");
+                Files.writeString(output, "x");
+                Thread.sleep(1_000);
+                watcher.close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // Act
+        boolean changed = watcher.awaitChange();
+
+        // Assert
+        assertFalse(changed, "PDF 以外のファイルや除外したファイルでは通知されないこと");
+    }
+
+    @Test
+    @Timeout(30)
+    void awaitChange_ignoresTemporaryOutputFiles_when_detectingByContent() throws Exception {
+        // Arrange
+        Path output = tmp.resolve("out.pdf");
+        DirectoryWatcher watcher = new DirectoryWatcher(tmp, 100, InputScanner.Detection.CONTENT,
+                Main.outputFiles(output, true));
+        Thread.ofVirtual().start(() -> {
+            try {
+                TestPdfs.create(tmp.resolve(".out.pdf.k3x9q.tmp"), 1);
+                TestPdfs.create(tmp.resolve(".out-001.pdf.7zt0m.tmp"), 1);
+                Thread.sleep(1_000);
+                watcher.close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // Act
+        boolean changed = watcher.awaitChange();
+
+        // Assert
+        assertFalse(changed, "出力や分割した出力を書き込み中の一時ファイルでは通知されないこと");
+    }
+}
@@ -0,0 +1,49 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IncrementalWriterTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void append_leavesFileUnchanged_when_writeFailsHalfway() throws Exception {
+        // Arrange
+        Path file = TestPdfs.create(tmp.resolve("out.pdf"), 2);
+        byte[] before = Files.readAllBytes(file);
+
+        try (PDDocument document = PDDocument.load(file.toFile())) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            COSStream content = document.getDocument().createCOSStream();
+            try (OutputStream out = content.createOutputStream()) {
+                out.write("0 0 m\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            page.getCOSObject().setItem(COSName.CONTENTS, content);
+            // A stream that can no longer be read makes the writer fail after it has serialized other objects
+            content.close();
+
+            // Act / Assert
+            assertThrows(IOException.class,
+                    () -> IncrementalWriter.append(document, file, before.length, OutputFile.Fsync.END),
+                    "書き込みの失敗が呼び出し元に伝わること");
+        }
+
+        // Assert
+        assertArrayEquals(before, Files.readAllBytes(file), "途中で失敗しても既存の出力が変わらないこと");
+    }
+}
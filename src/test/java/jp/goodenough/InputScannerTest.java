@@ -0,0 +1,136 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class InputScannerTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void resolve_returnsSameSortedListAsSequentialWalk_when_scanningConcurrently() throws Exception {
+        // Arrange
+        for (int d = 0; d < 4; d++) {
+            Path dir = Files.createDirectories(tmp.resolve("dir" + d).resolve("nested" + d));
+            for (int f = 0; f < 5; f++) {
+                Files.writeString(dir.resolve("File" + f + ".PDF"), "%PDF-1.4");
+                Files.writeString(dir.resolve("note" + f + ".txt"), "text");
+            }
+            Files.writeString(dir.getParent().resolve("top" + d + ".pdf"), "%PDF-1.4");
+        }
+        List<String> inputs = List.of(tmp.toString());
+
+        // Act
+        List<Path> sequential = scanner(1, InputScanner.Detection.EXTENSION).resolve(inputs);
+        List<Path> concurrent = scanner(8, InputScanner.Detection.EXTENSION).resolve(inputs);
+
+        // Assert
+        assertEquals(24, sequential.size(), "PDF のみが収集されること");
+        assertEquals(sequential, concurrent, "並列走査でも逐次走査と同じ順序の結果になること");
+    }
+
+    @Test
+    void resolve_throws_when_pathDoesNotExist() {
+        // Arrange
+        List<String> inputs = List.of(tmp.resolve("missing").toString());
+        InputScanner scanner = scanner(4, InputScanner.Detection.EXTENSION);
+
+        // Act / Assert
+        assertThrows(IOException.class, () -> scanner.resolve(inputs), "存在しないパスはエラーになること");
+    }
+
+    @Test
+    void resolve_acceptsByContent_when_detectingContent() throws Exception {
+        // Arrange
+        Path valid = TestPdfs.create(tmp.resolve("scan.PDF_"), 1);
+        Path noExtension = Files.copy(valid, tmp.resolve("scan-without-extension"));
+        Path truncated = tmp.resolve("truncated.pdf");
+        byte[] bytes = Files.readAllBytes(valid);
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length / 2));
+        Files.writeString(tmp.resolve("notes.txt"), "not a pdf");
+
+        // Act
+        List<Path> resolved = scanner(4, InputScanner.Detection.CONTENT).resolve(List.of(tmp.toString()));
+
+        // Assert
+        List<Path> expected = List.of(noExtension.toAbsolutePath().normalize(), valid.toAbsolutePath().normalize());
+        assertEquals(expected, resolved, "ヘッダーとトレーラーを持つファイルだけが拡張子に関係なく収集されること");
+    }
+
+    @Test
+    void resolve_reusesIndexedListing_when_directoryTimeIsUnchanged() throws Exception {
+        // Arrange
+        Path root = Files.createDirectories(tmp.resolve("root"));
+        Path sub = Files.createDirectories(root.resolve("sub"));
+        Files.writeString(sub.resolve("a.pdf"), "%PDF-1.4");
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(root, old);
+        Files.setLastModifiedTime(sub, old);
+        InputScanner scanner = indexedScanner(tmp.resolve("index"));
+        scanner.resolve(List.of(root.toString()));
+        // Hide a new file from the index by restoring the directory time
+        Files.writeString(sub.resolve("b.pdf"), "%PDF-1.4");
+        Files.setLastModifiedTime(sub, old);
+
+        // Act
+        List<Path> resolved = scanner.resolve(List.of(root.toString()));
+
+        // Assert
+        assertEquals(List.of(sub.resolve("a.pdf").toAbsolutePath().normalize()), resolved,
+                "更新時刻が変わっていないディレクトリは索引の内容が使われること");
+    }
+
+    @Test
+    void resolve_rereadsDirectory_when_itChangedSinceIndexed() throws Exception {
+        // Arrange
+        Path root = Files.createDirectories(tmp.resolve("root"));
+        Path sub = Files.createDirectories(root.resolve("sub"));
+        Files.writeString(sub.resolve("a.pdf"), "%PDF-1.4");
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(root, old);
+        Files.setLastModifiedTime(sub, old);
+        InputScanner scanner = indexedScanner(tmp.resolve("index"));
+        scanner.resolve(List.of(root.toString()));
+        Files.writeString(sub.resolve("b.pdf"), "%PDF-1.4");
+
+        // Act
+        List<Path> resolved = scanner.resolve(List.of(root.toString()));
+
+        // Assert
+        assertEquals(List.of(sub.resolve("a.pdf").toAbsolutePath().normalize(),
+                sub.resolve("b.pdf").toAbsolutePath().normalize()), resolved,
+                "変更されたディレクトリは読み直されること");
+    }
+
+    @Test
+    void looksLikePdf_rejectsFileWithoutTrailer() throws Exception {
+        // Arrange
+        Path file = tmp.resolve("header-only.pdf");
+        Files.writeString(file, "%PDF-1.7\n1 0 obj\n<<>>\nendobj\n");
+
+        // Act
+        boolean result = InputScanner.looksLikePdf(file);
+
+        // Assert
+        assertFalse(result, "トレーラーのないファイルは PDF とみなさないこと");
+    }
+
+    private static InputScanner indexedScanner(Path indexDir) {
+        return new InputScanner(MergeOptions.builder().indexDir(indexDir).build());
+    }
+
+    private static InputScanner scanner(int threads, InputScanner.Detection detection) {
+        return new InputScanner(MergeOptions.builder().scanThreads(threads).detection(detection).build());
+    }
+}
@@ -0,0 +1,66 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JobFileTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void read_resolvesPathsAgainstJobFile_when_json() throws Exception {
+        // Arrange
+        Path file = Files.writeString(tmp.resolve("jobs.json"), """
+                [
+                  {"output": "out/acme.pdf", "inputs": ["customers/acme", "cover \\"A\\".pdf"]},
+                  {"inputs": ["customers/globex"], "output": "out/globex.pdf"}
+                ]
+                """);
+
+        // Act
+        List<JobFile.Job> jobs = JobFile.read(file);
+
+        // Assert
+        assertEquals(List.of(
+                new JobFile.Job(List.of(tmp.resolve("customers/acme").toString(),
+                        tmp.resolve("cover \"A\".pdf").toString()), tmp.resolve("out/acme.pdf").toString()),
+                new JobFile.Job(List.of(tmp.resolve("customers/globex").toString()),
+                        tmp.resolve("out/globex.pdf").toString())), jobs,
+                "JSON のジョブがジョブファイル基準のパスで読み込まれること");
+    }
+
+    @Test
+    void read_splitsQuotedFields_when_csv() throws Exception {
+        // Arrange
+        Path file = Files.writeString(tmp.resolve("jobs.csv"), """
+                # output,inputs...
+                acme.pdf,"customers/acme, inc",cover.pdf
+
+                globex.pdf,customers/globex
+                """);
+
+        // Act
+        List<JobFile.Job> jobs = JobFile.read(file);
+
+        // Assert
+        assertEquals(2, jobs.size(), "空行とコメント行は読み飛ばされること");
+        assertEquals(List.of(tmp.resolve("customers/acme, inc").toString(), tmp.resolve("cover.pdf").toString()),
+                jobs.get(0).inputs(), "引用符で囲まれたフィールドはカンマを含められること");
+    }
+
+    @Test
+    void read_throws_when_twoJobsWriteSameOutput() throws Exception {
+        // Arrange
+        Path file = Files.writeString(tmp.resolve("jobs.csv"), "out.pdf,a\n./out.pdf,b\n");
+
+        // Act / Assert
+        assertThrows(IllegalArgumentException.class, () -> JobFile.read(file), "同じ出力先のジョブはエラーになること");
+    }
+}
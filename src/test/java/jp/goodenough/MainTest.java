@@ -1,11 +1,17 @@
 package jp.goodenough;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -69,4 +75,78 @@ class MainTest {
         // Assert
         assertEquals(1, exit, "引数なしは使用方法表示で終了コード1であること");
     }
-}
\ No newline at end of file
+
+    @Test
+    void run_runsEveryJobAndReportsFailure_when_givenJobFile() throws Exception {
+        // Arrange
+        Files.createDirectories(tmp.resolve("acme"));
+        Files.createDirectories(tmp.resolve("empty"));
+        TestPdfs.create(tmp.resolve("acme").resolve("a.pdf"), 2);
+        TestPdfs.create(tmp.resolve("acme").resolve("b.pdf"), 1);
+        Path jobs = Files.writeString(tmp.resolve("jobs.csv"), "acme.pdf,acme\nempty.pdf,empty\n");
+
+        // Act
+        int exit = new Main().run(new String[] {"--jobs", jobs.toString(), "--workers", "2"});
+
+        // Assert
+        assertEquals(8, exit, "失敗したジョブがあれば終了コード8であること");
+        assertEquals(3, TestPdfs.pageCount(tmp.resolve("acme.pdf")), "成功したジョブの出力が作成されていること");
+        assertTrue(Files.notExists(tmp.resolve("empty.pdf")), "失敗したジョブの出力は作成されないこと");
+    }
+
+    @Test
+    void run_mergesStandardInputToStandardOutput_when_givenDashes() throws Exception {
+        // Arrange
+        byte[] piped = Files.readAllBytes(TestPdfs.create(tmp.resolve("piped.pdf"), 2));
+        TestPdfs.create(tmp.resolve("b.pdf"), 1);
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        Main main = new Main(new ByteArrayInputStream(piped), new PrintStream(stdout, true, StandardCharsets.UTF_8),
+                new PrintStream(stderr, true, StandardCharsets.UTF_8), tmp);
+
+        // Act
+        int exit = main.run(new String[] {"-o", "-", "b.pdf", "-"});
+
+        // Assert
+        assertEquals(0, exit, "正常終了コードを返すこと");
+        Path merged = Files.write(tmp.resolve("merged.pdf"), stdout.toByteArray());
+        assertTrue(stdout.toString(StandardCharsets.ISO_8859_1).startsWith("%PDF-"), "標準出力にはPDFだけが書かれること");
+        assertEquals(3, TestPdfs.pageCount(merged), "標準入力のPDFも結合されていること");
+        assertEquals(TestPdfs.pageContents(tmp.resolve("piped.pdf")), TestPdfs.pageContents(merged).subList(0, 2),
+                "標準入力のPDFが先頭に結合されること");
+        assertTrue(stderr.toString(StandardCharsets.UTF_8).contains("standard output"), "メッセージは標準エラーに出ること");
+    }
+
+    @Test
+    void resolveInputs_reportsScanCpu_when_scanningOnVirtualThreads() throws Exception {
+        // Arrange
+        Path dir = Files.createDirectories(tmp.resolve("in"));
+        TestPdfs.create(dir.resolve("a.pdf"), 1);
+        TestPdfs.create(dir.resolve("b.pdf"), 1);
+        MergeStats stats = new MergeStats();
+
+        // Act
+        List<Path> pdfs = Main.resolveInputs(List.of(dir.toString()), MergeOptions.builder().build(), stats,
+                new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+
+        // Assert
+        assertEquals(2, pdfs.size(), "PDF が2件見つかること");
+        assertTrue(stats.cpuNanos(MergeStats.Phase.SCAN) >= 0, "走査の CPU 時間がプロセス全体の差分で記録されること");
+    }
+
+    @Test
+    void parseSize_acceptsBinaryUnitSuffixes() {
+        // Act / Assert
+        assertEquals(1024L, Main.parseSize("1024"), "単位なしはバイト数であること");
+        assertEquals(512L * 1024, Main.parseSize("512k"), "k は KiB であること");
+        assertEquals(256L * 1024 * 1024, Main.parseSize("256M"), "大文字の単位も受け付けること");
+        assertEquals(2L * 1024 * 1024 * 1024, Main.parseSize("2gb"), "末尾の b は無視されること");
+    }
+
+    @Test
+    void parseSize_rejectsMalformedSizes() {
+        // Act / Assert
+        assertThrows(IllegalArgumentException.class, () -> Main.parseSize("lots"), "数値でない指定は拒否されること");
+        assertThrows(IllegalArgumentException.class, () -> Main.parseSize("-1m"), "負の値は拒否されること");
+    }
+}
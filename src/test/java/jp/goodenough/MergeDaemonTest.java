@@ -0,0 +1,93 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MergeDaemonTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void connect_mergesRelativeToClientDirectory_when_daemonIsRunning() throws Exception {
+        // Arrange
+        TestPdfs.create(tmp.resolve("a.pdf"), 1);
+        TestPdfs.create(tmp.resolve("b.pdf"), 2);
+        Path socket = tmp.resolve("d.sock");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        MergeDaemon daemon = MergeDaemon.bind(socket, System.err);
+        Thread server = start(daemon);
+
+        // Act
+        int exit;
+        String permissions;
+        try {
+            permissions = PosixFilePermissions.toString(Files.getPosixFilePermissions(socket));
+            // Through Main, so that the client's own argument handling is covered as well
+            exit = new Main(new PrintStream(stdout, true, StandardCharsets.UTF_8),
+                    new PrintStream(stderr, true, StandardCharsets.UTF_8), tmp)
+                    .run(new String[] {"--connect", socket.toString(), "-o", "out.pdf", "a.pdf", "b.pdf"});
+        } finally {
+            daemon.close();
+            server.join();
+        }
+
+        // Assert
+        assertEquals(0, exit, "デーモンの終了コードが返ること: " + stderr.toString(StandardCharsets.UTF_8));
+        assertEquals(3, TestPdfs.pageCount(tmp.resolve("out.pdf")), "クライアントのディレクトリ基準で出力されること");
+        assertTrue(stdout.toString(StandardCharsets.UTF_8).startsWith("Merged 2 PDF(s) into: "),
+                "標準出力がクライアントに転送されること");
+        assertEquals("rw-------", permissions, "ソケットは所有者のみ読み書きできること");
+        try (var entries = Files.list(tmp)) {
+            assertEquals(0, entries.filter(p -> p.getFileName().toString().startsWith(".mergepdf-")).count(),
+                    "バインド用の一時ディレクトリが残らないこと");
+        }
+        assertTrue(Files.notExists(socket), "停止時にソケットファイルが削除されること");
+    }
+
+    @Test
+    void connect_rejectsWatch_when_sentToDaemon() throws Exception {
+        // Arrange
+        Files.createDirectory(tmp.resolve("in"));
+        Path socket = tmp.resolve("d.sock");
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        MergeDaemon daemon = MergeDaemon.bind(socket, System.err);
+        Thread server = start(daemon);
+
+        // Act
+        int exit;
+        try {
+            exit = MergeDaemon.forward(socket, tmp, List.of("--watch", "in"),
+                    new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8),
+                    new PrintStream(stderr, true, StandardCharsets.UTF_8));
+        } finally {
+            daemon.close();
+            server.join();
+        }
+
+        // Assert
+        assertEquals(2, exit, "--watch はデーモンで実行されないこと");
+        assertTrue(stderr.toString(StandardCharsets.UTF_8).contains("--watch"), "拒否した理由が返ること");
+    }
+
+    private static Thread start(MergeDaemon daemon) {
+        return Thread.ofVirtual().start(() -> {
+            try {
+                daemon.serve();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,66 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MergeManifestTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void coveredPrefix_returnsRecordedCount_when_inputsOnlyGrewAtTheEnd() throws Exception {
+        // Arrange
+        Path a = Files.writeString(tmp.resolve("a.pdf"), "a");
+        Path b = Files.writeString(tmp.resolve("b.pdf"), "b");
+        Path out = Files.writeString(tmp.resolve("out.pdf"), "merged");
+        Path file = MergeManifest.pathFor(out);
+        MergeManifest.of(MergeManifest.describe(List.of(a)), out, 1, MergeOptions.defaults()).write(file);
+
+        // Act
+        int covered = MergeManifest.read(file)
+                .coveredPrefix(MergeManifest.describe(List.of(a, b)), out, MergeOptions.defaults());
+
+        // Assert
+        assertEquals(1, covered, "記録済みの入力数が返ること");
+    }
+
+    @Test
+    void coveredPrefix_returnsMinusOne_when_recordedInputWasModified() throws Exception {
+        // Arrange
+        Path a = Files.writeString(tmp.resolve("a.pdf"), "a");
+        Path out = Files.writeString(tmp.resolve("out.pdf"), "merged");
+        Path file = MergeManifest.pathFor(out);
+        MergeManifest.of(MergeManifest.describe(List.of(a)), out, 1, MergeOptions.defaults()).write(file);
+        Files.setLastModifiedTime(a, FileTime.fromMillis(Files.getLastModifiedTime(a).toMillis() + 5_000));
+
+        // Act
+        int covered = MergeManifest.read(file)
+                .coveredPrefix(MergeManifest.describe(List.of(a)), out, MergeOptions.defaults());
+
+        // Assert
+        assertEquals(-1, covered, "更新された入力があれば作り直しになること");
+    }
+
+    @Test
+    void coveredPrefix_returnsMinusOne_when_optionsDiffer() throws Exception {
+        // Arrange
+        Path a = Files.writeString(tmp.resolve("a.pdf"), "a");
+        Path out = Files.writeString(tmp.resolve("out.pdf"), "merged");
+        Path file = MergeManifest.pathFor(out);
+        MergeManifest.of(MergeManifest.describe(List.of(a)), out, 1, MergeOptions.defaults()).write(file);
+
+        // Act
+        int covered = MergeManifest.read(file).coveredPrefix(MergeManifest.describe(List.of(a)), out,
+                MergeOptions.builder().compact(true).build());
+
+        // Assert
+        assertEquals(-1, covered, "出力を変えるオプションが違えば作り直しになること");
+    }
+}
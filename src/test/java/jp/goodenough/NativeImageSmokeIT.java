@@ -0,0 +1,95 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Run by failsafe in the native profile: the native executable must behave like the jar. */
+class NativeImageSmokeIT {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void nativeImage_writesSamePagesAsJar_when_mergingInputs() throws Exception {
+        // Arrange
+        Path binary = Paths.get(System.getProperty("mergepdf.native", "target/mergepdf"));
+        Path jar = Paths.get(System.getProperty("mergepdf.jar", "target/MergePDF-1.0-SNAPSHOT.jar"));
+        assumeTrue(Files.isExecutable(binary), "ネイティブ実行ファイルがビルドされていること");
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 3);
+        Path fromJar = tmp.resolve("jar.pdf");
+        Path fromNative = tmp.resolve("native.pdf");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        // Act
+        int jarExit = run(java, "-jar", jar.toString(), "--dedup", "--compact", "-o", fromJar.toString(),
+                a.toString(), b.toString());
+        int nativeExit = run(binary.toString(), "--dedup", "--compact", "-o", fromNative.toString(),
+                a.toString(), b.toString());
+
+        // Assert
+        assertEquals(0, jarExit, "jar が正常終了すること");
+        assertEquals(0, nativeExit, "ネイティブ実行ファイルが正常終了すること");
+        List<byte[]> expected = pageContents(fromJar);
+        List<byte[]> actual = pageContents(fromNative);
+        assertEquals(expected.size(), actual.size(), "ページ数が jar と一致すること");
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), "ページ内容が jar と一致すること: " + (i + 1));
+        }
+    }
+
+    @Test
+    void nativeImage_copiesBytesUnchanged_when_passThroughAndSingleInput() throws Exception {
+        // Arrange
+        Path binary = Paths.get(System.getProperty("mergepdf.native", "target/mergepdf"));
+        assumeTrue(Files.isExecutable(binary), "ネイティブ実行ファイルがビルドされていること");
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 2);
+        Path out = tmp.resolve("out.pdf");
+
+        // Act
+        int exit = run(binary.toString(), "-o", out.toString(), "--pass-through", a.toString());
+
+        // Assert
+        assertEquals(0, exit, "ネイティブ実行ファイルが正常終了すること");
+        assertArrayEquals(Files.readAllBytes(a), Files.readAllBytes(out), "単一入力はそのままコピーされること");
+    }
+
+    private int run(String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(tmp.resolve("process.log").toFile())
+                .start();
+        if (!process.waitFor(2, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            throw new IOException("Timed out: " + String.join(" ", command));
+        }
+        return process.exitValue();
+    }
+
+    /** Decoded content stream of every page; saved files differ in their /ID, so bytes are not compared. */
+    private static List<byte[]> pageContents(Path file) throws IOException {
+        List<byte[]> contents = new ArrayList<>();
+        try (PDDocument doc = PDDocument.load(file.toFile())) {
+            for (PDPage page : doc.getPages()) {
+                try (InputStream in = page.getContents()) {
+                    contents.add(in.readAllBytes());
+                }
+            }
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,100 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputFileTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void create_writesEveryByte_when_outputIsLargerThanBuffer() throws Exception {
+        // Arrange
+        byte[] data = new byte[OutputFile.BUFFER_SIZE * 2 + 123];
+        new Random(1).nextBytes(data);
+        Path file = tmp.resolve("out.bin");
+
+        // Act
+        try (OutputFile out = OutputFile.create(file, OutputFile.Fsync.DIRECTORY)) {
+            out.write(data[0]);
+            out.write(data, 1, 1000);
+            out.write(data, 1001, data.length - 1001);
+        }
+
+        // Assert
+        assertArrayEquals(data, Files.readAllBytes(file), "バッファを超える出力もすべて書き込まれること");
+    }
+
+    @Test
+    void append_keepsExistingBytes_when_writingAtEnd() throws Exception {
+        // Arrange
+        Path file = Files.write(tmp.resolve("out.bin"), new byte[] {1, 2, 3});
+
+        // Act
+        try (OutputFile out = OutputFile.append(file, OutputFile.Fsync.END)) {
+            out.write(new byte[] {4, 5});
+        }
+
+        // Assert
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, Files.readAllBytes(file), "既存の内容の後ろに追記されること");
+    }
+
+    @Test
+    void create_keepsPreviousOutput_when_discarded() throws Exception {
+        // Arrange
+        Path file = Files.write(tmp.resolve("out.bin"), new byte[] {1, 2, 3});
+        OutputFile out = OutputFile.create(file, OutputFile.Fsync.END);
+        out.write(new byte[] {4, 5});
+        out.flush();
+
+        // Act
+        byte[] whileWriting = Files.readAllBytes(file);
+        out.discard();
+        out.close();
+
+        // Assert
+        assertArrayEquals(new byte[] {1, 2, 3}, whileWriting, "書き込み中は以前の出力が残っていること");
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(file), "破棄すると以前の出力が残ること");
+        try (var entries = Files.list(tmp)) {
+            assertEquals(1, entries.count(), "一時ファイルが残らないこと");
+        }
+    }
+
+    @Test
+    void append_cutsBackToOriginalLength_when_discarded() throws Exception {
+        // Arrange
+        Path file = Files.write(tmp.resolve("out.bin"), new byte[] {1, 2, 3});
+        OutputFile out = OutputFile.append(file, OutputFile.Fsync.END);
+        out.write(new byte[] {4, 5});
+        out.flush();
+
+        // Act
+        long whileWriting = Files.size(file);
+        out.discard();
+
+        // Assert
+        assertEquals(5, whileWriting, "追記した内容がファイルに届いていること");
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(file), "破棄すると追記前の長さに戻ること");
+    }
+
+    @Test
+    void write_throwsClosedChannelException_when_closed() throws Exception {
+        // Arrange
+        OutputFile out = OutputFile.create(tmp.resolve("out.bin"), OutputFile.Fsync.NONE);
+        out.close();
+
+        // Act / Assert
+        assertThrows(ClosedChannelException.class, () -> out.write(1), "閉じた後の書き込みは例外になること");
+        assertThrows(ClosedChannelException.class, () -> out.write(new byte[1], 0, 1),
+                "閉じた後の書き込みは例外になること");
+    }
+}
@@ -0,0 +1,74 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutputSplitterTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void merge_cutsInputsAtPageBoundaries_when_pageLimitIsSet() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 3);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 4);
+        Path c = TestPdfs.create(tmp.resolve("c.pdf"), 2);
+        Path out = tmp.resolve("out.pdf");
+        Path stale = TestPdfs.create(tmp.resolve("out-004.pdf"), 1);
+        List<String> expected = new ArrayList<>();
+        for (Path in : List.of(a, b, c)) {
+            expected.addAll(TestPdfs.pageContents(in));
+        }
+        MergeOptions options = MergeOptions.builder().maxOutputPages(4).parallelism(2).build();
+
+        // Act
+        MergeResult result = new OutputSplitter(options, new MergeStats()).merge(List.of(a, b, c), out);
+
+        // Assert
+        assertEquals(List.of(tmp.resolve("out-001.pdf"), tmp.resolve("out-002.pdf"), tmp.resolve("out-003.pdf")),
+                result.parts(), "番号付きのパートに分割されること");
+        assertEquals(4, TestPdfs.pageCount(result.parts().get(0)), "1つ目のパートは上限ちょうどのページ数であること");
+        assertEquals(4, TestPdfs.pageCount(result.parts().get(1)), "2つ目のパートは上限ちょうどのページ数であること");
+        assertEquals(1, TestPdfs.pageCount(result.parts().get(2)), "残りのページが最後のパートに入ること");
+        List<String> actual = new ArrayList<>();
+        for (Path part : result.parts()) {
+            actual.addAll(TestPdfs.pageContents(part));
+        }
+        assertEquals(expected, actual, "パートを順に並べると入力と同じページ順になること");
+        assertEquals(9, result.pages(), "全ページ数が返されること");
+        assertTrue(Files.notExists(stale), "前回の実行で残ったパートは削除されること");
+        assertTrue(Files.notExists(out), "分割しない出力ファイルは作成されないこと");
+    }
+
+    @Test
+    void merge_keepsEveryPartWithinByteLimit_when_byteLimitIsSet() throws Exception {
+        // Arrange
+        List<Path> inputs = new ArrayList<>();
+        long largest = 0;
+        for (int i = 0; i < 4; i++) {
+            Path in = TestPdfs.create(tmp.resolve("in" + i + ".pdf"), 2);
+            inputs.add(in);
+            largest = Math.max(largest, Files.size(in));
+        }
+        // Copied unchanged, a part of one input is exactly as large as the input
+        MergeOptions options = MergeOptions.builder().passThrough(true).maxOutputBytes(largest).build();
+
+        // Act
+        MergeResult result = new OutputSplitter(options, new MergeStats()).merge(inputs, tmp.resolve("out.pdf"));
+
+        // Assert
+        assertEquals(4, result.parts().size(), "入力2つ分は上限を超えるため入力ごとのパートになること");
+        for (Path part : result.parts()) {
+            assertTrue(Files.size(part) <= largest, "各パートがサイズ上限以下であること: " + part);
+        }
+        assertEquals(8, result.pages(), "全ページが結合されること");
+    }
+}
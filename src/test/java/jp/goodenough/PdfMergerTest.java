@@ -0,0 +1,378 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PdfMergerTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void merge_keepsEverythingOnHeap_when_noMemoryBudget() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 3);
+        Path out = tmp.resolve("out.pdf");
+
+        // Act
+        MergeResult result = new PdfMerger(MergeOptions.defaults()).merge(List.of(a, b), out);
+
+        // Assert
+        assertEquals(5, result.pages(), "全ページが結合されること");
+        assertEquals(0L, result.spilledBytes(), "メモリ上限なしではスクラッチを使わないこと");
+        assertEquals(5, TestPdfs.pageCount(out), "出力PDFのページ数が一致すること");
+    }
+
+    @Test
+    void merge_spillsToScratchDir_when_memoryBudgetIsZero() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 2);
+        Path scratch = tmp.resolve("scratch");
+        Path out = tmp.resolve("out.pdf");
+        MergeOptions options = MergeOptions.builder().maxMemoryBytes(0).scratchDir(scratch).build();
+
+        // Act
+        MergeResult result = new PdfMerger(options).merge(List.of(a, b), out);
+
+        // Assert
+        assertTrue(result.spilledBytes() > 0, "スクラッチへの退避量が報告されること");
+        assertEquals(4, TestPdfs.pageCount(out), "出力PDFのページ数が一致すること");
+        try (Stream<Path> leftovers = Files.list(scratch)) {
+            assertEquals(0L, leftovers.count(), "スクラッチディレクトリが後片付けされること");
+        }
+    }
+
+    @Test
+    void merge_keepsInputOrder_when_streaming() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 1, 0);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 2, 1);
+        Path c = TestPdfs.create(tmp.resolve("c.pdf"), 3, 3);
+        Path out = tmp.resolve("out.pdf");
+        MergeOptions options = MergeOptions.builder().streaming(true).build();
+        List<String> expected = new ArrayList<>();
+        for (Path input : List.of(a, b, c)) {
+            expected.addAll(TestPdfs.pageContents(input));
+        }
+
+        // Act
+        MergeResult result = new PdfMerger(options).merge(List.of(a, b, c), out);
+
+        // Assert
+        assertEquals(3, result.documents(), "全入力が結合されること");
+        assertEquals(expected, TestPdfs.pageContents(out), "入力の順にページが結合されること");
+    }
+
+    @Test
+    void merge_keepsInputOrder_when_prefetching() throws Exception {
+        // Arrange
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            inputs.add(TestPdfs.create(tmp.resolve("in" + i + ".pdf"), i));
+        }
+        Path expected = tmp.resolve("expected.pdf");
+        Path out = tmp.resolve("out.pdf");
+        new PdfMerger(MergeOptions.builder().streaming(true).build()).merge(inputs, expected);
+        MergeOptions options = MergeOptions.builder().streaming(true).prefetch(2).build();
+
+        // Act
+        MergeResult result = new PdfMerger(options).merge(inputs, out);
+
+        // Assert
+        assertEquals(10, result.pages(), "全ページが結合されること");
+        assertEquals(TestPdfs.pageContents(expected), TestPdfs.pageContents(out),
+                "先読みしても先読みなしと同じ順序で結合されること");
+    }
+
+    @Test
+    void merge_writesSamePages_when_readingThroughMemoryMappings() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 3);
+        Path expected = tmp.resolve("expected.pdf");
+        Path out = tmp.resolve("out.pdf");
+        new PdfMerger(MergeOptions.defaults()).merge(List.of(a, b), expected);
+
+        // Act
+        MergeResult result = new PdfMerger(MergeOptions.builder().mmap(true).build()).merge(List.of(a, b), out);
+
+        // Assert
+        assertEquals(5, result.pages(), "全ページが結合されること");
+        assertEquals(TestPdfs.pageContents(expected), TestPdfs.pageContents(out),
+                "メモリマップ経由でも同じページ内容になること");
+    }
+
+    @Test
+    void merge_copiesOnlySelectedPages_when_pageRangesGiven() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 5);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 1);
+        Path out = tmp.resolve("out.pdf");
+        Map<Path, List<PageRange>> pageRanges = Map.of(a, PageRange.parseList("4,1-2"));
+        List<String> pages = TestPdfs.pageContents(a);
+        PdfMerger merger = new PdfMerger(MergeOptions.defaults(), new MergeStats(), null, pageRanges);
+
+        // Act
+        MergeResult result = merger.merge(List.of(a, b), out);
+
+        // Assert
+        assertEquals(4, result.pages(), "選択したページと残りの入力のページが数えられること");
+        List<String> merged = TestPdfs.pageContents(out);
+        assertEquals(List.of(pages.get(3), pages.get(0), pages.get(1)), merged.subList(0, 3),
+                "選択したページだけが指定順に結合されること");
+        assertEquals(TestPdfs.pageContents(b), merged.subList(3, 4), "選択のない入力は全ページ結合されること");
+    }
+
+    @Test
+    void merge_leavesCatalogOut_when_pagesOnlyProfile() throws Exception {
+        // Arrange
+        Path a = withOutline(tmp.resolve("a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 3);
+        Path expected = tmp.resolve("expected.pdf");
+        Path out = tmp.resolve("out.pdf");
+        new PdfMerger(MergeOptions.defaults()).merge(List.of(a, b), expected);
+        MergeOptions options = MergeOptions.builder().profile(PdfMerger.Profile.PAGES_ONLY).build();
+
+        // Act
+        MergeResult result = new PdfMerger(options).merge(List.of(a, b), out);
+
+        // Assert
+        assertEquals(5, result.pages(), "全ページが結合されること");
+        assertEquals(TestPdfs.pageContents(expected), TestPdfs.pageContents(out), "ページ内容は変わらないこと");
+        try (PDDocument merged = PDDocument.load(out.toFile())) {
+            assertNull(merged.getDocumentCatalog().getDocumentOutline(), "しおりは結合されないこと");
+        }
+    }
+
+    @Test
+    void merge_leavesCatalogOut_when_pagesOnlyProfileAndSingleInput() throws Exception {
+        // Arrange
+        Path a = withOutline(tmp.resolve("a.pdf"), 2);
+        Path out = tmp.resolve("out.pdf");
+        MergeOptions options =
+                MergeOptions.builder().passThrough(true).profile(PdfMerger.Profile.PAGES_ONLY).build();
+
+        // Act
+        MergeResult result = new PdfMerger(options).merge(List.of(a), out);
+
+        // Assert
+        assertEquals(2, result.pages(), "全ページが結合されること");
+        try (PDDocument merged = PDDocument.load(out.toFile())) {
+            assertNull(merged.getDocumentCatalog().getDocumentOutline(), "単一入力でもしおりは結合されないこと");
+        }
+    }
+
+    @Test
+    void merge_addsBookmarksByDirectory_when_bookmarksTree() throws Exception {
+        // Arrange
+        Files.createDirectories(tmp.resolve("x"));
+        Files.createDirectories(tmp.resolve("y"));
+        Path a = TestPdfs.create(tmp.resolve("x/a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("y/b.pdf"), 1);
+        Path c = TestPdfs.create(tmp.resolve("y/c.pdf"), 1);
+        Path out = tmp.resolve("out.pdf");
+        MergeOptions options = MergeOptions.builder().bookmarks(Bookmarks.Layout.TREE).build();
+
+        // Act
+        new PdfMerger(options).merge(List.of(a, b, c), out);
+
+        // Assert
+        try (PDDocument merged = PDDocument.load(out.toFile())) {
+            List<String> directories = new ArrayList<>();
+            List<String> files = new ArrayList<>();
+            for (PDOutlineItem directory : merged.getDocumentCatalog().getDocumentOutline().children()) {
+                directories.add(directory.getTitle());
+                for (PDOutlineItem file : directory.children()) {
+                    files.add(file.getTitle() + "@" + merged.getPages().indexOf(file.findDestinationPage(merged)));
+                }
+            }
+            assertEquals(List.of("x", "y"), directories, "ディレクトリごとのしおりが作られること");
+            assertEquals(List.of("a@0", "b@2", "c@3"), files, "入力ごとのしおりが先頭ページを指すこと");
+        }
+    }
+
+    @Test
+    void merge_producesSamePageOrderAsSequential_when_parallel() throws Exception {
+        // Arrange
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            inputs.add(TestPdfs.create(tmp.resolve("in" + i + ".pdf"), i, i * 10));
+        }
+        Path expected = tmp.resolve("expected.pdf");
+        Path out = tmp.resolve("out.pdf");
+        new PdfMerger(MergeOptions.defaults()).merge(inputs, expected);
+        MergeOptions options = MergeOptions.builder().parallelism(3).build();
+
+        // Act
+        MergeResult result = new PdfMerger(options).merge(inputs, out);
+
+        // Assert
+        assertEquals(3, options.prefetch(), "並列度の数だけ先読みされること");
+        assertEquals(15, result.pages(), "全ページが結合されること");
+        assertEquals(TestPdfs.pageContents(expected), TestPdfs.pageContents(out),
+                "並列でも逐次と同じ順序で結合されること");
+    }
+
+    @Test
+    void merge_copiesBytesUnchanged_when_passThroughAndSingleInput() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 3);
+        Path out = tmp.resolve("out.pdf");
+
+        // Act
+        MergeResult result = new PdfMerger(MergeOptions.builder().passThrough(true).build()).merge(List.of(a), out);
+
+        // Assert
+        assertEquals(3, result.pages(), "ページ数が報告されること");
+        assertArrayEquals(Files.readAllBytes(a), Files.readAllBytes(out), "単一入力はそのままコピーされること");
+    }
+
+    @Test
+    void merge_rewritesSingleInput_when_passThroughNotRequested() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 3);
+        // Bytes after the end of the file, which only a copy would keep
+        Files.write(a, "% leftover\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        Path out = tmp.resolve("out.pdf");
+
+        // Act
+        MergeResult result = new PdfMerger(MergeOptions.defaults()).merge(List.of(a), out);
+
+        // Assert
+        assertEquals(3, result.pages(), "ページ数が報告されること");
+        assertFalse(Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(out)), "既定では単一入力も書き直されること");
+        assertEquals(TestPdfs.pageContents(a), TestPdfs.pageContents(out), "ページ内容は変わらないこと");
+    }
+
+    @Test
+    void merge_writesIdenticalStreamsOnce_when_deduplicating() throws Exception {
+        // Arrange
+        Path template = TestPdfs.create(tmp.resolve("template.pdf"), 2);
+        List<Path> inputs = List.of(template, template, template, template);
+        Path plain = tmp.resolve("plain.pdf");
+        Path deduplicated = tmp.resolve("dedup.pdf");
+
+        // Act
+        new PdfMerger(MergeOptions.defaults()).merge(inputs, plain);
+        new PdfMerger(MergeOptions.builder().deduplicate(true).build()).merge(inputs, deduplicated);
+
+        // Assert
+        assertEquals(8, TestPdfs.pageCount(deduplicated), "重複排除してもページ数は変わらないこと");
+        assertTrue(Files.size(deduplicated) < Files.size(plain), "重複排除した出力の方が小さいこと");
+    }
+
+    @Test
+    void merge_recordsEveryPhase_when_statsAreGiven() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 3);
+        Path out = tmp.resolve("out.pdf");
+        MergeStats stats = new MergeStats();
+
+        // Act
+        MergeResult result = new PdfMerger(MergeOptions.defaults(), stats).merge(List.of(a, b), out);
+
+        // Assert
+        assertEquals(Files.size(a) + Files.size(b), stats.bytesRead(), "読み込んだバイト数が入力サイズの合計であること");
+        assertEquals(Files.size(out), stats.bytesWritten(), "書き込んだバイト数が出力サイズと一致すること");
+        assertTrue(stats.objectsWritten() > result.pages(), "ページ以外のオブジェクトも数えられること");
+        assertTrue(stats.wallNanos(MergeStats.Phase.CLONE) > 0, "ページ複製の時間が記録されること");
+        assertTrue(stats.toJson(result).contains("\"save\":{\"count\":1,"), "保存フェーズが1回記録されること");
+    }
+
+    @Test
+    void merge_reportsOpenCpu_when_prefetching() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 3);
+        MergeStats stats = new MergeStats();
+        MergeOptions options = MergeOptions.builder().prefetch(1).build();
+
+        // Act
+        MergeResult result = new PdfMerger(options, stats).merge(List.of(a, b), tmp.resolve("out.pdf"));
+
+        // Assert
+        assertTrue(stats.cpuNanos(MergeStats.Phase.OPEN) >= 0, "先読みスレッドで開いた CPU 時間も記録されること");
+        assertTrue(stats.cpuNanos(MergeStats.Phase.SAVE) >= 0, "呼び出し元スレッドの CPU 時間は記録されること");
+        assertFalse(stats.toJson(result).contains("\"cpuNanos\":null"), "JSON に CPU 時間なしのフェーズがないこと");
+        assertTrue(stats.peakHeapBytes() > 0, "ピークヒープが記録されること");
+    }
+
+    @Test
+    void merge_appendsOnlyNewInputs_when_incrementalAndNewInputsSortLast() throws Exception {
+        // Arrange
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 2);
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 1);
+        Path c = TestPdfs.create(tmp.resolve("c.pdf"), 3);
+        Path out = tmp.resolve("out.pdf");
+        MergeOptions options = MergeOptions.builder().incremental(true).build();
+        new PdfMerger(options).merge(List.of(a, b), out);
+        byte[] before = Files.readAllBytes(out);
+
+        // Act
+        MergeResult appended = new PdfMerger(options).merge(List.of(a, b, c), out);
+        MergeResult unchanged = new PdfMerger(options).merge(List.of(a, b, c), out);
+
+        // Assert
+        assertEquals(MergeResult.Update.APPENDED, appended.update(), "新しい入力だけが追記されること");
+        assertEquals(1, appended.documents(), "追記した入力の数が報告されること");
+        assertEquals(6, TestPdfs.pageCount(out), "追記後のページ数が一致すること");
+        byte[] after = Files.readAllBytes(out);
+        assertArrayEquals(before, Arrays.copyOf(after, before.length), "既存の内容は書き換えられないこと");
+        assertEquals(MergeResult.Update.UNCHANGED, unchanged.update(), "入力が変わらなければ何も書かないこと");
+        assertEquals(6, unchanged.pages(), "マニフェストのページ数が報告されること");
+    }
+
+    @Test
+    void merge_rebuilds_when_incrementalAndNewInputSortsFirst() throws Exception {
+        // Arrange
+        Path b = TestPdfs.create(tmp.resolve("b.pdf"), 2);
+        Path c = TestPdfs.create(tmp.resolve("c.pdf"), 1);
+        Path out = tmp.resolve("out.pdf");
+        MergeOptions options = MergeOptions.builder().incremental(true).build();
+        new PdfMerger(options).merge(List.of(b, c), out);
+        Path a = TestPdfs.create(tmp.resolve("a.pdf"), 3);
+
+        // Act
+        MergeResult result = new PdfMerger(options).merge(List.of(a, b, c), out);
+
+        // Assert
+        assertEquals(MergeResult.Update.REBUILT, result.update(), "順序が変わったら作り直すこと");
+        assertEquals(6, TestPdfs.pageCount(out), "作り直した出力のページ数が一致すること");
+    }
+
+    /** Write a PDF with the given number of pages and an outline item pointing at its first page. */
+    private Path withOutline(Path file, int pages) throws Exception {
+        Path plain = TestPdfs.create(tmp.resolve("plain-" + file.getFileName()), pages);
+        try (PDDocument doc = PDDocument.load(plain.toFile())) {
+            PDDocumentOutline outline = new PDDocumentOutline();
+            PDOutlineItem item = new PDOutlineItem();
+            item.setTitle("first");
+            item.setDestination(doc.getPage(0));
+            outline.addLast(item);
+            doc.getDocumentCatalog().setDocumentOutline(outline);
+            doc.save(file.toFile());
+        }
+        return file;
+    }
+}
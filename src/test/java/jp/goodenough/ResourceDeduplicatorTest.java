@@ -0,0 +1,88 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+
+class ResourceDeduplicatorTest {
+
+    @Test
+    void deduplicate_sharesIdenticalStreams_and_keepsDifferentOnes() throws Exception {
+        try (PDDocument doc = new PDDocument()) {
+            // Arrange
+            PDPage first = page(doc, "0 0 10 10 re f");
+            PDPage second = page(doc, "0 0 10 10 re f");
+            PDPage third = page(doc, "0 0 20 20 re f");
+            ResourceDeduplicator deduplicator = new ResourceDeduplicator();
+
+            // Act
+            deduplicator.deduplicate(doc);
+
+            // Assert
+            assertEquals(1, deduplicator.duplicates(), "同一内容のストリームが 1 つ検出されること");
+            assertSame(contents(first), contents(second), "同一内容のストリームは共有されること");
+            assertNotSame(contents(first), contents(third), "内容の異なるストリームは共有されないこと");
+        }
+    }
+
+    @Test
+    void deduplicate_sharesIdenticalFonts_when_pagesHaveResources() throws Exception {
+        try (PDDocument doc = new PDDocument()) {
+            // Arrange
+            PDPage first = page(doc, "BT /F1 12 Tf (a) Tj ET");
+            PDPage second = page(doc, "BT /F1 12 Tf (b) Tj ET");
+            first.getCOSObject().setItem(COSName.RESOURCES, resources());
+            second.getCOSObject().setItem(COSName.RESOURCES, resources());
+            ResourceDeduplicator deduplicator = new ResourceDeduplicator();
+
+            // Act
+            deduplicator.deduplicate(doc);
+
+            // Assert
+            assertSame(font(first), font(second), "同一内容のフォントは共有されること");
+        }
+    }
+
+    /** A /Resources dictionary, which has no /Type, holding a font of its own. */
+    private static COSDictionary resources() {
+        COSDictionary font = new COSDictionary();
+        font.setItem(COSName.TYPE, COSName.FONT);
+        font.setItem(COSName.SUBTYPE, COSName.getPDFName("Type1"));
+        font.setItem(COSName.getPDFName("BaseFont"), COSName.getPDFName("Helvetica"));
+        COSDictionary fonts = new COSDictionary();
+        fonts.setItem(COSName.getPDFName("F1"), font);
+        COSDictionary resources = new COSDictionary();
+        resources.setItem(COSName.FONT, fonts);
+        return resources;
+    }
+
+    private static Object font(PDPage page) {
+        COSDictionary resources = (COSDictionary) page.getCOSObject().getDictionaryObject(COSName.RESOURCES);
+        return ((COSDictionary) resources.getDictionaryObject(COSName.FONT)).getDictionaryObject(
+                COSName.getPDFName("F1"));
+    }
+
+    private static PDPage page(PDDocument doc, String operators) throws Exception {
+        COSStream stream = doc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createRawOutputStream()) {
+            out.write(operators.getBytes(StandardCharsets.US_ASCII));
+        }
+        PDPage page = new PDPage();
+        page.getCOSObject().setItem(COSName.CONTENTS, stream);
+        doc.addPage(page);
+        return page;
+    }
+
+    private static Object contents(PDPage page) {
+        return page.getCOSObject().getItem(COSName.CONTENTS);
+    }
+}
@@ -0,0 +1,44 @@
+package jp.goodenough;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+
+class StreamCompactorTest {
+
+    @Test
+    void compact_flateEncodesLargeUnfilteredStreams_and_skipsTinyOnes() throws Exception {
+        try (PDDocument doc = new PDDocument()) {
+            // Arrange
+            COSStream large = contentStream(doc, "0 0 10 10 re f\n".repeat(200));
+            COSStream tiny = contentStream(doc, "q Q");
+            StreamCompactor compactor = new StreamCompactor();
+
+            // Act
+            compactor.compact(doc);
+
+            // Assert
+            assertEquals(COSName.FLATE_DECODE, large.getItem(COSName.FILTER), "大きなストリームは圧縮されること");
+            assertNull(tiny.getItem(COSName.FILTER), "小さなストリームはそのままであること");
+            assertEquals(1, compactor.compressed(), "圧縮したストリーム数が報告されること");
+        }
+    }
+
+    private static COSStream contentStream(PDDocument doc, String operators) throws Exception {
+        COSStream stream = doc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createRawOutputStream()) {
+            out.write(operators.getBytes(StandardCharsets.US_ASCII));
+        }
+        PDPage page = new PDPage();
+        page.getCOSObject().setItem(COSName.CONTENTS, stream);
+        doc.addPage(page);
+        return stream;
+    }
+}
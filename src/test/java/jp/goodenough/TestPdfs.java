@@ -0,0 +1,62 @@
+package jp.goodenough;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/** Generates small PDF fixtures so tests do not depend on the data directory. */
+final class TestPdfs {
+
+    private TestPdfs() {
+    }
+
+    /** Write a PDF with the given number of pages, each carrying a small content stream. */
+    static Path create(Path file, int pages) throws IOException {
+        return create(file, pages, 0);
+    }
+
+    /**
+     * Write a PDF whose pages draw at {@code first}, {@code first + 1} and so on, so that pages of inputs created with
+     * different values of {@code first} can be told apart.
+     */
+    static Path create(Path file, int pages, int first) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                    content.addRect(10 + first + i, 10, 100, 100);
+                    content.fill();
+                }
+            }
+            doc.save(file.toFile());
+        }
+        return file;
+    }
+
+    /** Decoded content stream of every page, in page order. */
+    static List<String> pageContents(Path file) throws IOException {
+        List<String> contents = new ArrayList<>();
+        try (PDDocument doc = PDDocument.load(file.toFile())) {
+            for (PDPage page : doc.getPages()) {
+                try (InputStream in = page.getContents()) {
+                    contents.add(new String(in.readAllBytes(), StandardCharsets.ISO_8859_1));
+                }
+            }
+        }
+        return contents;
+    }
+
+    static int pageCount(Path file) throws IOException {
+        try (PDDocument doc = PDDocument.load(file.toFile())) {
+            return doc.getNumberOfPages();
+        }
+    }
+}
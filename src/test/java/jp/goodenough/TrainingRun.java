@@ -0,0 +1,133 @@
+package jp.goodenough;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * Representative workload for build steps that record what a merge touches at run time.
+ *
+ * <p>This generates a few small PDFs with text and graphics, then runs {@link Main#run} once for each engine, reader,
+ * profile, pre-save pass and output kind: buffered, streaming and prefetching merges, memory-mapped inputs, page
+ * selections, standard input and output, bookmarks, profiles, split outputs, incremental updates, the scan index,
+ * content detection, job files and a daemon with a client. Only {@code --watch} is left out, since it never returns.
+ * The {@code appcds} profile records the classes this loads for the AppCDS archive, and the {@code native} profile runs
+ * it under the native-image tracing agent, which records the reflection, JNI and resources it uses.
+ *
+ * <p>It lives with the tests so that it stays out of the shipped jar; the profiles put the test classes on the class
+ * path next to the jar.
+ */
+final class TrainingRun {
+
+    private TrainingRun() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: TrainingRun WORK_DIR");
+            System.exit(2);
+        }
+        Path work = Files.createDirectories(Paths.get(args[0]));
+        Path in = Files.createDirectories(work.resolve("in"));
+        Path nested = Files.createDirectories(in.resolve("nested"));
+        for (int i = 0; i < 4; i++) {
+            createPdf((i < 3 ? in : nested).resolve("doc-" + i + ".pdf"), i + 1);
+        }
+        Files.writeString(in.resolve("notes.txt"), "not a pdf");
+        String dir = in.toString();
+        String single = in.resolve("doc-0.pdf").toString();
+        Path grow = Files.createDirectories(work.resolve("grow"));
+        Files.copy(in.resolve("doc-0.pdf"), grow.resolve("a.pdf"));
+        Files.writeString(work.resolve("jobs.csv"), "job-a.pdf,in/doc-0.pdf,in/doc-1.pdf\njob-b.pdf,in\n");
+
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        Main main = new Main(quiet, quiet, work);
+        String[][] runs = {
+                {"-o", "buffered.pdf", dir},
+                {"-o", "streaming.pdf", "--streaming", "--max-memory", "0", "--scratch-dir", "scratch", dir},
+                {"-o", "prefetched.pdf", "--streaming", "--prefetch", "2", dir},
+                {"-o", "parallel.pdf", "--parallelism", "2", dir},
+                {"-o", "mapped.pdf", "--mmap", dir},
+                {"-o", "resources.pdf", "--dedup", "--compact", "--stats", dir},
+                {"-o", "optimized.pdf", "--profile", "optimized-resources", "--bookmarks", "files", dir},
+                {"-o", "pages.pdf", "--profile", "pages-only", "--bookmarks", "tree", dir},
+                {"-o", "selected.pdf", nested.resolve("doc-3.pdf") + "[3,1-2]", single},
+                {"-o", "split.pdf", "--max-output-pages", "3", dir},
+                {"-o", "sized.pdf", "--max-output-bytes", "3k", dir},
+                {"-o", "detected.pdf", "--detect", "content", "--scan-threads", "1", dir},
+                {"-o", "indexed.pdf", "--index-dir", "index", "--fsync", "dir", dir},
+                {"-o", "indexed.pdf", "--index-dir", "index", "--fsync", "end", dir},
+                {"-o", "grown.pdf", "--incremental", grow.toString()},
+                {"-o", "single.pdf", "--pass-through", single},
+                {"-o", "rewritten.pdf", single},
+                {"-o", "-", dir},
+                {"--jobs", "jobs.csv", "--workers", "2"},
+        };
+        for (String[] run : runs) {
+            run(main, run);
+        }
+        // The second incremental run appends instead of rebuilding
+        Files.copy(in.resolve("doc-1.pdf"), grow.resolve("b.pdf"));
+        run(main, new String[] {"-o", "grown.pdf", "--incremental", grow.toString()});
+        run(new Main(new ByteArrayInputStream(Files.readAllBytes(Paths.get(single))), quiet, quiet, work),
+                new String[] {"-o", "piped.pdf", "-", dir});
+        daemon(main, work, dir);
+    }
+
+    /** Serve one client, which merges through {@code --connect}. */
+    private static void daemon(Main main, Path work, String dir) throws Exception {
+        // Socket paths are limited to about 100 bytes, which the work directory may already exceed
+        Path sockets = Files.createTempDirectory("mergepdf-training");
+        Path socket = sockets.resolve("d.sock");
+        MergeDaemon daemon = MergeDaemon.bind(socket, new PrintStream(OutputStream.nullOutputStream()));
+        Thread server = Thread.ofVirtual().start(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            run(main, new String[] {"--connect", socket.toString(), "-o", work.resolve("remote.pdf").toString(), dir});
+        } finally {
+            daemon.close();
+            server.join();
+            Files.deleteIfExists(sockets);
+        }
+    }
+
+    private static void run(Main main, String[] args) throws IOException {
+        int exit = main.run(args);
+        if (exit != 0) {
+            throw new IOException("Training run failed with exit code " + exit + ": " + String.join(" ", args));
+        }
+    }
+
+    private static void createPdf(Path file, int pages) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                    content.addRect(10 + i, 10, 100, 100);
+                    content.fill();
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 720);
+                    content.showText("MergePDF training page " + (i + 1));
+                    content.endText();
+                }
+            }
+            doc.save(file.toFile());
+        }
+    }
+}